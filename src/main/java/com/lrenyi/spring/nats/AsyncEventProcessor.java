@@ -0,0 +1,33 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * An {@link EventProcessor} completing its response asynchronously. The receiving thread is free as soon as
+ * {@link #handleAsync} returned the stage, the response is sent from whatever thread completes it, so processors
+ * waiting for other services, including other NATS requests, do not block a thread.
+ * <p>
+ * With {@code event-execution=ordered} only the start of the handling is ordered per key, the stages may complete
+ * in any order. In one of {@code app.template.nats.bulkheads} the processor keeps its bulkhead thread until the
+ * stage completed, so the bulkhead bounds the events in progress, a stage which never completes takes a thread for
+ * good.
+ */
+public interface AsyncEventProcessor extends EventProcessor {
+    
+    CompletionStage<String> handleAsync(String jsonData, Connection connection);
+    
+    /**
+     * Waits for the stage, for callers which need the response synchronously.
+     */
+    @Override
+    default String handler(String jsonData, Connection connection) throws Throwable {
+        try {
+            return handleAsync(jsonData, connection).toCompletableFuture().get();
+        } catch (ExecutionException | CompletionException e) {
+            throw e.getCause() == null ? e : e.getCause();
+        }
+    }
+}
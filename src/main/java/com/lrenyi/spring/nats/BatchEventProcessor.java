@@ -0,0 +1,43 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An {@link EventProcessor} receiving the events of its type in batches, e.g. to write them with one bulk
+ * insert. Received events are queued, a batch is handed over as soon as {@link #getMaxBatchSize()} events are
+ * queued or the oldest one waited {@link #getMaxWait()}, and the responses are sent back to every single caller.
+ */
+public interface BatchEventProcessor extends EventProcessor {
+    
+    /**
+     * @param events     the bodies of the events in the order they were received
+     * @param connection a connection the events were received on
+     *
+     * @return one response per event in the order of {@code events}; when this throws, every event of the batch is
+     * answered with the failure
+     */
+    List<String> handleBatch(List<String> events, Connection connection) throws Throwable;
+    
+    default int getMaxBatchSize() {
+        return 100;
+    }
+    
+    default Duration getMaxWait() {
+        return Duration.ofMillis(10);
+    }
+    
+    /**
+     * Events waiting for a batch at most, further events block the receiving thread.
+     */
+    default int getQueueCapacity() {
+        return Math.max(1024, getMaxBatchSize() * 4);
+    }
+    
+    @Override
+    default String handler(String jsonData, Connection connection) throws Throwable {
+        return handleBatch(Collections.singletonList(jsonData), connection).getFirst();
+    }
+}
@@ -0,0 +1,34 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An {@link EventProcessor} working on raw bytes, the body is handed over as a view of the received message and
+ * the returned bytes are sent back as they are, no charset conversion takes place on either side.
+ */
+public interface BinaryEventProcessor extends EventProcessor {
+    
+    /**
+     * @param body read-only view of the event body, empty when the event has no body
+     *
+     * @return the response data, may be null
+     */
+    byte[] handle(ByteBuffer body, Connection connection) throws Throwable;
+    
+    /**
+     * The text form of the processor, which fails with a {@link java.nio.charset.CharacterCodingException} for a
+     * response that is not UTF-8 text instead of corrupting it. Received events do not take this path, their
+     * response bytes are sent as they are.
+     */
+    @Override
+    default String handler(String jsonData, Connection connection) throws Throwable {
+        byte[] body = jsonData == null ? new byte[0] : jsonData.getBytes(StandardCharsets.UTF_8);
+        byte[] response = handle(ByteBuffer.wrap(body).asReadOnlyBuffer(), connection);
+        if (response == null) {
+            return null;
+        }
+        return StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(response)).toString();
+    }
+}
@@ -0,0 +1,41 @@
+package com.lrenyi.spring.nats;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collects the chunks of a {@link StreamingEventProcessor} answering a plain request, which was not sent by
+ * {@link TemplateNatsService#publishEventStream}, into one response.
+ */
+class CollectedResponseStream extends ResponseStream {
+    private final ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+    private boolean completed;
+    
+    CollectedResponseStream() {
+        super(null, null, 0, null, null);
+    }
+    
+    @Override
+    public void next(byte[] chunk) {
+        if (completed) {
+            throw new IllegalStateException("the response stream is already completed.");
+        }
+        if (chunk != null) {
+            chunks.writeBytes(chunk);
+        }
+    }
+    
+    @Override
+    public void complete() {
+        completed = true;
+    }
+    
+    @Override
+    public boolean isClosed() {
+        return completed;
+    }
+    
+    String collected() {
+        return chunks.toString(StandardCharsets.UTF_8);
+    }
+}
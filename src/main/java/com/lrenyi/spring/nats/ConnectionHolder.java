@@ -3,10 +3,10 @@ package com.lrenyi.spring.nats;
 import com.lrenyi.spring.nats.annotations.Subscribe;
 import io.nats.client.Connection;
 import io.nats.client.Dispatcher;
-import io.nats.client.Message;
-import java.lang.reflect.InvocationTargetException;
+import io.nats.client.MessageHandler;
 import java.lang.reflect.Method;
 import java.security.InvalidParameterException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -16,6 +16,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -25,6 +26,7 @@ import java.util.concurrent.locks.ReentrantLock;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.config.BeanPostProcessor;
@@ -33,13 +35,28 @@ import org.springframework.stereotype.Component;
 
 @Slf4j
 @Component
-public class ConnectionHolder implements InitializingBean, BeanPostProcessor {
+public class ConnectionHolder implements InitializingBean, DisposableBean, BeanPostProcessor {
     public final Lock lock = new ReentrantLock();
     private final AtomicInteger next = new AtomicInteger(0);
     private final List<Connection> allConn = new ArrayList<>();
     private final Map<Connection, Set<SubscribeInfo>> resubscribes = new HashMap<>();
-    ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    private final Map<Connection, ReplyMultiplexer> replyMultiplexers = new ConcurrentHashMap<>();
+    private final Map<Connection, DispatcherPool> dispatcherPools = new ConcurrentHashMap<>();
+    private final Map<SubscribeInfo, AtomicInteger> consumerCounts = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    /**
+     * Runs the reconnects apart from {@link #scheduler}, a blocking connect holds up neither the reply sweeper and
+     * the flush coalescer nor the tasks of the services.
+     */
+    private final ScheduledExecutorService reconnector = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nats-reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
     private NatsProperties properties;
+    private FlushCoalescer flushCoalescer;
+    private InFlightLimiter inFlightLimiter;
+    private SubscriptionMonitor subscriptionMonitor;
     
     @Autowired
     public void setConnection(Connection connection) {
@@ -51,21 +68,37 @@ public class ConnectionHolder implements InitializingBean, BeanPostProcessor {
         this.properties = properties;
     }
     
+    public NatsProperties getProperties() {
+        return properties;
+    }
+    
     @Override
     public void afterPropertiesSet() throws Exception {
         startStatusCheckerThread();
+        startReplySweeperThread();
+        startFlushCoalescer();
+        startSubscriptionMonitor();
+        EventFrameCodec.setMaxDecompressedLength(properties.getMaxDecompressedSize());
+        inFlightLimiter = InFlightLimiter.of(properties);
         int total = properties.getConnectionTotal();
         if (properties.isReconnectWhenClosed() && allConn.size() < total) {
             for (int i = 0; i < total - 1; i++) {
-                Connection connection = NatsConfiguration.makeConnection(properties);
+                Connection connection = connect();
                 allConn.add(connection);
             }
         }
     }
     
     private synchronized void startStatusCheckerThread() {
-        Runnable runnable = () -> {
-            lock.lock();
+        reconnector.scheduleAtFixedRate(this::reconnectClosed, 1, 8, TimeUnit.SECONDS);
+    }
+    
+    /**
+     * Replaces closed connections with new ones and moves their subscriptions over.
+     */
+    void reconnectClosed() {
+        lock.lock();
+        try {
             Iterator<Connection> iterator = allConn.iterator();
             List<Connection> newConn = new ArrayList<>();
             while (iterator.hasNext()) {
@@ -75,45 +108,165 @@ public class ConnectionHolder implements InitializingBean, BeanPostProcessor {
                 }
                 Set<SubscribeInfo> subscribeInfos = resubscribes.get(connection);
                 try {
-                    Connection connect = NatsConfiguration.makeConnection(properties);
+                    Connection connect = connect();
                     if (connect == null) {
                         continue;
                     }
                     newConn.add(connect);
                     if (subscribeInfos != null) {
-                        subscribeInfos.forEach(subscribeInfo -> {
-                            Object bean = subscribeInfo.getBean();
-                            Method method = subscribeInfo.getMethod();
-                            Subscribe subject = subscribeInfo.getSubject();
-                            dispatcherSubscribe(bean, method, subject, connect);
-                        });
+                        subscribeInfos.forEach(subscribeInfo -> dispatcherSubscribe(subscribeInfo, connect));
                         resubscribes.remove(connection);
                     }
                     iterator.remove();
+                    dispatcherPools.remove(connection);
+                    flushCoalescer.remove(connection);
+                    ReplyMultiplexer multiplexer = replyMultiplexers.remove(connection);
+                    if (multiplexer != null) {
+                        multiplexer.close();
+                    }
                 } catch (Throwable ignore) {}
             }
             allConn.addAll(newConn);
+        } finally {
             lock.unlock();
-        };
-        scheduler.scheduleAtFixedRate(runnable, 1, 8, TimeUnit.SECONDS);
+        }
+    }
+    
+    Connection connect() throws Exception {
+        return NatsConfiguration.makeConnection(properties);
+    }
+    
+    private void startReplySweeperThread() {
+        long interval = properties.getRequestSweepInterval().toMillis();
+        Runnable runnable = () -> replyMultiplexers.values().forEach(ReplyMultiplexer::sweep);
+        scheduler.scheduleAtFixedRate(runnable, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    private void startFlushCoalescer() {
+        Duration interval = properties.getPublishFlushInterval();
+        boolean scheduled = interval != null && !interval.isZero();
+        flushCoalescer = new FlushCoalescer(properties.getPublishFlushSize(), scheduled);
+        if (scheduled) {
+            long millis = interval.toMillis();
+            scheduler.scheduleAtFixedRate(flushCoalescer::flushAll, millis, millis, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private void startSubscriptionMonitor() {
+        double threshold = properties.getSlowConsumerThreshold();
+        if (!(threshold > 0 && threshold <= 1)) {
+            throw new IllegalArgumentException("the slow consumer threshold must be in (0, 1], actual: " + threshold);
+        }
+        Duration checkInterval = properties.getSlowConsumerCheckInterval();
+        if (checkInterval == null || checkInterval.toMillis() <= 0) {
+            throw new IllegalArgumentException("the slow consumer check interval must be positive.");
+        }
+        subscriptionMonitor = new SubscriptionMonitor(slowConsumerPolicy(), threshold, this::addConsumer);
+        long interval = checkInterval.toMillis();
+        scheduler.scheduleAtFixedRate(() -> {
+            try {
+                subscriptionMonitor.check();
+            } catch (Throwable e) {
+                log.error("check the subscriptions error.", e);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Shedding looks at the backlog of the dispatcher and adding consumers at the dispatcher thread, neither
+     * affects a single subscription when it shares its dispatcher.
+     */
+    private SlowConsumerPolicy slowConsumerPolicy() {
+        SlowConsumerPolicy policy = properties.getSlowConsumerPolicy();
+        DispatcherStrategy strategy = properties.getDispatcherStrategy();
+        boolean shared = policy == SlowConsumerPolicy.SHED && strategy != DispatcherStrategy.PER_SUBSCRIPTION;
+        if (shared || policy == SlowConsumerPolicy.ADD_CONSUMER && strategy == DispatcherStrategy.SHARED) {
+            log.warn("the slow consumer policy {} does not work with the {} dispatcher strategy, use {}.",
+                     policy,
+                     strategy,
+                     SlowConsumerPolicy.LOG
+            );
+            return SlowConsumerPolicy.LOG;
+        }
+        return policy;
+    }
+    
+    @Override
+    public void destroy() {
+        reconnector.shutdownNow();
+        scheduler.shutdownNow();
+    }
+    
+    /**
+     * @return the scheduler of the periodic housekeeping tasks of the connections and of the services using them
+     */
+    public ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+    
+    public FlushCoalescer getFlushCoalescer() {
+        return flushCoalescer;
+    }
+    
+    public InFlightLimiter getInFlightLimiter() {
+        return inFlightLimiter;
+    }
+    
+    /**
+     * @return the reply multiplexer sharing one wildcard inbox subscription for all requests sent on the
+     * connection, created on first use
+     */
+    public ReplyMultiplexer getReplyMultiplexer(Connection connection) {
+        return replyMultiplexers.computeIfAbsent(connection, ReplyMultiplexer::new);
     }
     
     public void dispatcherSubscribe(Object bean, Method method, Subscribe sub, Connection connection) {
-        Dispatcher dispatcher = connection.createDispatcher(message -> {
+        dispatcherSubscribe(new SubscribeInfo(bean, method, sub, properties.getDefaultCodec()), connection);
+    }
+    
+    public void dispatcherSubscribe(SubscribeInfo subscribeInfo, Connection connection) {
+        MessageHandler invoker = subscribeInfo.getInvoker();
+        String methodName = subscribeInfo.getMethod().getName();
+        MessageHandler delivery = message -> {
             try {
-                method.invoke(bean, message);
-            } catch (IllegalAccessException | InvocationTargetException e) {
-                log.error("invoke method[{}] error.", method.getName(), e);
+                invoker.onMessage(message);
+            } catch (Throwable e) {
+                log.error("invoke method[{}] error.", methodName, e);
             }
-        });
+        };
+        Subscribe sub = subscribeInfo.getSubject();
+        Dispatcher dispatcher = dispatcherFor(connection, sub);
+        MessageHandler handler = subscriptionMonitor.watch(subscribeInfo, dispatcher, delivery);
         String queue = sub.queue();
         if (queue.isEmpty()) {
-            dispatcher.subscribe(sub.value());
+            dispatcher.subscribe(sub.value(), handler);
         } else {
-            dispatcher.subscribe(sub.value(), queue);
+            dispatcher.subscribe(sub.value(), queue, handler);
         }
         Set<SubscribeInfo> subscribeInfos = resubscribes.computeIfAbsent(connection, k -> new HashSet<>());
-        subscribeInfos.add(new SubscribeInfo(bean, method, sub));
+        subscribeInfos.add(subscribeInfo);
+    }
+    
+    private Dispatcher dispatcherFor(Connection connection, Subscribe sub) {
+        return switch (properties.getDispatcherStrategy()) {
+            case SHARED -> dispatcherPool(connection, 1).get(null);
+            case POOL -> dispatcherPool(connection, properties.getDispatcherPoolSize()).get(sub.group());
+            default -> {
+                Dispatcher dispatcher = connection.createDispatcher();
+                long messageLimit = sub.pendingMessageLimit();
+                long byteLimit = sub.pendingByteLimit();
+                dispatcher.setPendingLimits(messageLimit < 0 ? properties.getPendingMessageLimit() : messageLimit,
+                                            byteLimit < 0 ? properties.getPendingByteLimit() : byteLimit
+                );
+                yield dispatcher;
+            }
+        };
+    }
+    
+    private DispatcherPool dispatcherPool(Connection connection, int size) {
+        long messageLimit = properties.getPendingMessageLimit();
+        long byteLimit = properties.getPendingByteLimit();
+        return dispatcherPools.computeIfAbsent(connection, c -> new DispatcherPool(c, size, messageLimit, byteLimit));
     }
     
     @Override
@@ -122,21 +275,91 @@ public class ConnectionHolder implements InitializingBean, BeanPostProcessor {
         Arrays.stream(clazz.getMethods()).forEach(method -> {
             Optional<Subscribe> subOpt = Optional.ofNullable(AnnotationUtils.findAnnotation(method, Subscribe.class));
             subOpt.ifPresent(sub -> {
-                final Class<?>[] parameterTypes = method.getParameterTypes();
-                if (parameterTypes.length != 1 || !parameterTypes[0].equals(Message.class)) {
-                    throw new InvalidParameterException("");
+                if (maxConsumers(sub) > 1 && sub.queue().isEmpty()) {
+                    throw new InvalidParameterException(String.format(
+                            "the method %s subscribes with several members, it needs a queue.",
+                            method.getName()
+                    ));
                 }
-                Optional<Connection> connectionOptional = getValidateConnection();
-                if (connectionOptional.isEmpty()) {
-                    throw new InvalidParameterException("the connection of nats is null when create dispatcher.");
+                warnSharedPendingLimits(method, sub);
+                SubscribeInfo subscribeInfo = new SubscribeInfo(bean, method, sub, properties.getDefaultCodec());
+                consumerCounts.put(subscribeInfo, new AtomicInteger());
+                for (int i = 0; i < Math.max(1, sub.concurrency()); i++) {
+                    addConsumer(subscribeInfo);
                 }
-                Connection connection = connectionOptional.get();
-                dispatcherSubscribe(bean, method, sub, connection);
             });
         });
         return bean;
     }
     
+    /**
+     * The pending limits of a {@code @Subscribe} method are those of its dispatcher, which it only has to itself
+     * with the per subscription dispatcher strategy.
+     */
+    private void warnSharedPendingLimits(Method method, Subscribe sub) {
+        DispatcherStrategy strategy = properties.getDispatcherStrategy();
+        if (strategy == DispatcherStrategy.PER_SUBSCRIPTION) {
+            return;
+        }
+        if (sub.pendingMessageLimit() >= 0 || sub.pendingByteLimit() >= 0) {
+            log.warn("the pending limits of method {} do not work with the {} dispatcher strategy, use {} and {}.",
+                     method.getName(),
+                     strategy,
+                     "app.template.nats.pending-message-limit",
+                     "app.template.nats.pending-byte-limit"
+            );
+        }
+    }
+    
+    /**
+     * Adds a queue group member to the subscription of a {@code @Subscribe} method on the next pooled connection,
+     * as long as it has fewer than its {@code maxConcurrency} members.
+     *
+     * @return false when the subscription has all members it may have
+     */
+    public boolean addConsumer(SubscribeInfo subscribeInfo) {
+        AtomicInteger count = consumerCounts.get(subscribeInfo.withMember(0));
+        if (count == null) {
+            throw new IllegalArgumentException("the method " + subscribeInfo.getMethod().getName()
+                                                       + " is not subscribed.");
+        }
+        Optional<Connection> connectionOptional = getValidateConnection();
+        if (connectionOptional.isEmpty()) {
+            throw new InvalidParameterException("the connection of nats is null when create dispatcher.");
+        }
+        lock.lock();
+        try {
+            int member = count.get();
+            if (member >= maxConsumers(subscribeInfo.getSubject())) {
+                return false;
+            }
+            dispatcherSubscribe(subscribeInfo.withMember(member), connectionOptional.get());
+            count.set(member + 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    static int maxConsumers(Subscribe sub) {
+        return Math.max(Math.max(1, sub.concurrency()), sub.maxConcurrency());
+    }
+    
+    /**
+     * @return the queue group members subscribed for the method of {@code subscribeInfo}
+     */
+    public int getConsumerCount(SubscribeInfo subscribeInfo) {
+        AtomicInteger count = consumerCounts.get(subscribeInfo.withMember(0));
+        return count == null ? 0 : count.get();
+    }
+    
+    /**
+     * @return the pending and dropped messages of every queue group member of the {@code @Subscribe} methods
+     */
+    public List<SubscriptionStats> getSubscriptionStats() {
+        return subscriptionMonitor.getStats();
+    }
+    
     public Optional<Connection> getValidateConnection() {
         List<Connection> allConnection = findAllConnection();
         if (allConnection.isEmpty()) {
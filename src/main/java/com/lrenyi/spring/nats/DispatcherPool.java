@@ -0,0 +1,53 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The dispatchers subscriptions of one connection are spread over, created when first needed.
+ */
+class DispatcherPool {
+    private final Connection connection;
+    private final Dispatcher[] dispatchers;
+    private final AtomicInteger next = new AtomicInteger();
+    /**
+     * The dispatcher index of every group, assigned round-robin when the group is first seen.
+     */
+    private final Map<String, Integer> groups = new ConcurrentHashMap<>();
+    private final long pendingMessageLimit;
+    private final long pendingByteLimit;
+    
+    DispatcherPool(Connection connection, int size, long pendingMessageLimit, long pendingByteLimit) {
+        this.connection = connection;
+        this.dispatchers = new Dispatcher[Math.max(1, size)];
+        this.pendingMessageLimit = pendingMessageLimit;
+        this.pendingByteLimit = pendingByteLimit;
+    }
+    
+    /**
+     * @param group subscriptions of the same non-empty group always get the same dispatcher, different groups get
+     *              different ones as long as there are more dispatchers than groups
+     */
+    synchronized Dispatcher get(String group) {
+        int index;
+        if (group == null || group.isEmpty()) {
+            index = nextIndex();
+        } else {
+            index = groups.computeIfAbsent(group, g -> nextIndex());
+        }
+        Dispatcher dispatcher = dispatchers[index];
+        if (dispatcher == null) {
+            dispatcher = connection.createDispatcher();
+            dispatcher.setPendingLimits(pendingMessageLimit, pendingByteLimit);
+            dispatchers[index] = dispatcher;
+        }
+        return dispatcher;
+    }
+    
+    private int nextIndex() {
+        return Math.floorMod(next.getAndIncrement(), dispatchers.length);
+    }
+}
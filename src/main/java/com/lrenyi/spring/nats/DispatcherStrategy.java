@@ -0,0 +1,21 @@
+package com.lrenyi.spring.nats;
+
+/**
+ * How {@link ConnectionHolder} assigns {@code @Subscribe} methods to jnats dispatchers, each of which owns a
+ * thread.
+ */
+public enum DispatcherStrategy {
+    /**
+     * A dispatcher of its own per subscription, subscriptions never delay each other but every one costs a thread.
+     */
+    PER_SUBSCRIPTION,
+    /**
+     * One dispatcher per connection delivering the messages of all its subscriptions one by one.
+     */
+    SHARED,
+    /**
+     * {@code app.template.nats.dispatcher-pool-size} dispatchers per connection, subscriptions are assigned by their
+     * {@code group} or, without a group, round-robin.
+     */
+    POOL
+}
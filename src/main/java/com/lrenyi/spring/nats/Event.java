@@ -0,0 +1,19 @@
+package com.lrenyi.spring.nats;
+
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+public class Event {
+    private String name;
+    private String body;
+    
+    public Event() {
+    }
+    
+    public Event(String name, String body) {
+        this.name = name;
+        this.body = body;
+    }
+}
@@ -0,0 +1,140 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Queues the events of one {@link BatchEventProcessor} and drains them into batches on a thread of its own. The
+ * events still queued at shutdown, or arriving after it, are answered with a failure response.
+ */
+@Slf4j
+class EventBatchCollector implements Runnable {
+    private final BatchEventProcessor processor;
+    private final Responder responder;
+    private final BlockingQueue<Pending> queue;
+    private final Thread thread;
+    private volatile boolean shutdown;
+    
+    EventBatchCollector(BatchEventProcessor processor, Responder responder) {
+        this.processor = processor;
+        this.responder = responder;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, processor.getQueueCapacity()));
+        this.thread = new Thread(this, "nats-batch-" + processor.getEventType());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    void add(String body, Connection connection, String replyTo) throws InterruptedException {
+        Pending pending = new Pending(body, connection, replyTo);
+        if (shutdown) {
+            reject(pending);
+            return;
+        }
+        queue.put(pending);
+        if (shutdown) {
+            rejectQueued();
+        }
+    }
+    
+    void shutdown() {
+        shutdown = true;
+        thread.interrupt();
+    }
+    
+    @Override
+    public void run() {
+        int maxSize = Math.max(1, processor.getMaxBatchSize());
+        long maxWait = processor.getMaxWait().toNanos();
+        List<Pending> batch = new ArrayList<>(maxSize);
+        while (!shutdown && !Thread.currentThread().isInterrupted()) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWait;
+                while (batch.size() < maxSize) {
+                    queue.drainTo(batch, maxSize - batch.size());
+                    long wait = deadline - System.nanoTime();
+                    if (batch.size() >= maxSize || wait <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!batch.isEmpty()) {
+                handle(batch);
+                batch.clear();
+            }
+        }
+        rejectQueued();
+    }
+    
+    private void handle(List<Pending> batch) {
+        List<String> events = new ArrayList<>(batch.size());
+        batch.forEach(pending -> events.add(pending.body));
+        List<String> responses = null;
+        String error = null;
+        try {
+            responses = processor.handleBatch(events, batch.getFirst().connection);
+            if (responses == null || responses.size() != batch.size()) {
+                error = String.format("the batch processor of event %s returned %s responses for %s events.",
+                                      processor.getEventType(),
+                                      responses == null ? 0 : responses.size(),
+                                      batch.size()
+                );
+                log.error(error);
+            }
+        } catch (Throwable e) {
+            error = e.getMessage() != null ? e.getMessage() : e.toString();
+            log.error("", e);
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            if (pending.replyTo == null || pending.replyTo.isEmpty()) {
+                continue;
+            }
+            byte[] frame = error == null
+                    ? EventFrameCodec.encodeResponse(true, responses.get(i))
+                    : EventFrameCodec.encodeResponse(false, error);
+            reply(pending, frame);
+        }
+    }
+    
+    private void rejectQueued() {
+        Pending pending;
+        while ((pending = queue.poll()) != null) {
+            reject(pending);
+        }
+    }
+    
+    private void reject(Pending pending) {
+        if (pending.replyTo == null || pending.replyTo.isEmpty()) {
+            return;
+        }
+        String error = "the batch processor of event " + processor.getEventType() + " is shut down.";
+        reply(pending, EventFrameCodec.encodeResponse(false, error));
+    }
+    
+    private void reply(Pending pending, byte[] frame) {
+        try {
+            responder.reply(pending.connection, pending.replyTo, frame);
+        } catch (RuntimeException e) {
+            log.warn("reply to the batched event {} failed.", processor.getEventType(), e);
+        }
+    }
+    
+    interface Responder {
+        void reply(Connection connection, String replyTo, byte[] responseFrame);
+    }
+    
+    private record Pending(String body, Connection connection, String replyTo) {}
+}
@@ -0,0 +1,105 @@
+package com.lrenyi.spring.nats;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Packs fire-and-forget events into envelopes, one open envelope per subject.
+ * <p>
+ * An envelope is sent as soon as the next event would make it larger than {@code maxBytes}, or by
+ * {@link #flushExpired()} once its oldest event waited {@code linger}. An event which alone exceeds
+ * {@code maxBytes} is sent on its own after the open envelope. The envelopes are sent while holding the lock of their
+ * subject, so the events of a subject leave in the order they were added. The envelope of a subject which stayed
+ * empty until the next flush is dropped, so subjects no longer published to do not pile up.
+ */
+public class EventBatcher {
+    private final int maxBytes;
+    private final long lingerNanos;
+    private final BiConsumer<String, byte[]> sender;
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    
+    public EventBatcher(int maxBytes, Duration linger, BiConsumer<String, byte[]> sender) {
+        this.maxBytes = maxBytes;
+        this.lingerNanos = linger.toNanos();
+        this.sender = sender;
+    }
+    
+    public void add(String subject, byte[] frame) {
+        while (true) {
+            Batch batch = batches.computeIfAbsent(subject, k -> new Batch());
+            synchronized (batch) {
+                if (batch.removed) {
+                    continue;
+                }
+                if (batch.size > 0 && batch.size + frame.length + 5 > maxBytes) {
+                    sender.accept(subject, batch.drain());
+                }
+                if (frame.length + 5 > maxBytes) {
+                    sender.accept(subject, frame);
+                } else {
+                    batch.append(frame);
+                }
+                return;
+            }
+        }
+    }
+    
+    public void flushExpired() {
+        flush(true);
+    }
+    
+    public void flushAll() {
+        flush(false);
+    }
+    
+    /**
+     * @return the subjects with an open envelope
+     */
+    int getSubjectCount() {
+        return batches.size();
+    }
+    
+    private void flush(boolean expiredOnly) {
+        long now = System.nanoTime();
+        batches.forEach((subject, batch) -> {
+            synchronized (batch) {
+                if (batch.size == 0) {
+                    batch.removed = true;
+                    batches.remove(subject, batch);
+                    return;
+                }
+                if (expiredOnly && now - batch.firstNanos < lingerNanos) {
+                    return;
+                }
+                sender.accept(subject, batch.drain());
+            }
+        });
+    }
+    
+    private static final class Batch {
+        private byte[] buffer = new byte[1024];
+        private int size;
+        private long firstNanos;
+        private boolean removed;
+        
+        private void append(byte[] frame) {
+            if (size == 0) {
+                firstNanos = System.nanoTime();
+            }
+            if (size + frame.length > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(size + frame.length, buffer.length << 1));
+            }
+            System.arraycopy(frame, 0, buffer, size, frame.length);
+            size += frame.length;
+        }
+        
+        private byte[] drain() {
+            byte[] envelope = EventFrameCodec.encodeEnvelope(buffer, size);
+            size = 0;
+            return envelope;
+        }
+    }
+}
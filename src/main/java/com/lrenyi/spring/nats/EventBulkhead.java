@@ -0,0 +1,113 @@
+package com.lrenyi.spring.nats;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Getter;
+
+/**
+ * A dedicated worker pool with a bounded queue for the events of one type, so a flood of one event type cannot
+ * take the threads or the queue of another.
+ */
+public class EventBulkhead {
+    @Getter
+    private final String eventType;
+    @Getter
+    private final Policy policy;
+    private final ThreadPoolExecutor executor;
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+    
+    public EventBulkhead(String eventType, int threads, int queueCapacity, Policy policy) {
+        this.eventType = eventType;
+        this.policy = policy;
+        AtomicInteger sequence = new AtomicInteger();
+        ThreadFactory threadFactory = runnable -> {
+            Thread thread = new Thread(runnable, "nats-bulkhead-" + eventType + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads,
+                                               threads,
+                                               0,
+                                               TimeUnit.MILLISECONDS,
+                                               new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                                               threadFactory
+        );
+    }
+    
+    /**
+     * Queues the task, or applies the policy when the queue is full.
+     *
+     * @return false when the task was rejected and the caller has to report that to the sender of the event
+     */
+    public boolean execute(Runnable task) {
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            switch (policy) {
+                case DROP -> {
+                    dropped.increment();
+                    return true;
+                }
+                case CALLER_RUNS -> {
+                    callerRuns.increment();
+                    task.run();
+                    return true;
+                }
+                default -> {
+                    rejected.increment();
+                    return false;
+                }
+            }
+        }
+    }
+    
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+    
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+    
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+    
+    public long getCallerRunsCount() {
+        return callerRuns.sum();
+    }
+    
+    public void shutdown() {
+        executor.shutdown();
+    }
+    
+    /**
+     * What happens to an event arriving while the queue of its bulkhead is full.
+     */
+    public enum Policy {
+        /**
+         * Answer the event with a failure response.
+         */
+        REJECT,
+        /**
+         * Discard the event silently.
+         */
+        DROP,
+        /**
+         * Process the event on the receiving thread, which stalls the subscription until it is done.
+         */
+        CALLER_RUNS
+    }
+}
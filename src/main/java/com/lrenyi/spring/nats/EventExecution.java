@@ -0,0 +1,26 @@
+package com.lrenyi.spring.nats;
+
+/**
+ * The thread {@link TemplateNatsService#handOriginalMessage} runs event processors on.
+ */
+public enum EventExecution {
+    /**
+     * The thread delivering the message, usually the dispatcher of the subscription, events are handled one by one.
+     */
+    DISPATCHER,
+    /**
+     * A new virtual thread per event, which also sends the reply, so blocking processors do not hold up the
+     * dispatcher and events are handled concurrently without ordering. At most
+     * {@code app.template.nats.virtual-max-concurrency} events are processed at once, beyond that the dispatcher
+     * waits and further messages stay pending in the subscription. Event types with one of
+     * {@code app.template.nats.bulkheads} run on its pool instead, bounded by its threads and queue only.
+     */
+    VIRTUAL,
+    /**
+     * One of {@code app.template.nats.ordered-lanes} threads chosen by the key of the event, so events with the
+     * same key are handled in order and events with different keys concurrently. The key is sent in the
+     * {@code app.template.nats.event-key-header} header, events without a key are ordered per event type.
+     * {@code app.template.nats.bulkheads} are rejected in this mode.
+     */
+    ORDERED
+}
@@ -0,0 +1,50 @@
+package com.lrenyi.spring.nats;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import lombok.Getter;
+
+/**
+ * A decoded event frame, the name and body are offsets into the received message data and are only turned into
+ * strings on demand. A compressed body is decompressed into its own array, so {@link #getBodyData()} is not
+ * necessarily the message data.
+ */
+@Getter
+public class EventFrame {
+    private final byte[] data;
+    private final int nameOffset;
+    private final int nameLength;
+    private final byte[] bodyData;
+    private final int bodyOffset;
+    private final int bodyLength;
+    
+    public EventFrame(byte[] data, int nameOffset, int nameLength, byte[] bodyData, int bodyOffset, int bodyLength) {
+        this.data = data;
+        this.nameOffset = nameOffset;
+        this.nameLength = nameLength;
+        this.bodyData = bodyData;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bodyLength;
+    }
+    
+    public String name() {
+        return new String(data, nameOffset, nameLength, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return the body as string, or null when the event was published without a body
+     */
+    public String body() {
+        if (bodyLength == 0) {
+            return null;
+        }
+        return new String(bodyData, bodyOffset, bodyLength, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return a read-only view of the body over the received data, empty when the event has no body
+     */
+    public ByteBuffer bodyBuffer() {
+        return ByteBuffer.wrap(bodyData, bodyOffset, bodyLength).slice().asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,409 @@
+package com.lrenyi.spring.nats;
+
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import com.lrenyi.spring.nats.compress.PayloadCompressor;
+import com.lrenyi.spring.nats.compress.PayloadCompressors;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Encoder and decoder of the event wire format.
+ * <p>
+ * An event frame is {@code [byte nameLen][name][int bodyLen][body]} and a response frame is
+ * {@code [byte success][int len][data]}, integers are big-endian. An event frame with an empty name is an
+ * envelope whose body is a sequence of event frames, see {@link #encodeEnvelope}. The high bit of a body length
+ * marks a compressed body, see {@link #compressEvent(byte[], PayloadCompressor, int)}. Frames are written into a
+ * single byte array of the exact size, strings are encoded straight into it, and decoding works on offsets into
+ * the received array, so the only garbage per message is the payload itself. The array is handed over to the
+ * connection, which keeps it until written, therefore it is not reused.
+ */
+public final class EventFrameCodec {
+    public static final int MAX_NAME_LENGTH = 255;
+    /**
+     * Set in the body length when the body is {@code [byte compressorId][int originalLength][compressed]}.
+     */
+    static final int COMPRESSED = 0x80000000;
+    static final int LENGTH_MASK = 0x7FFFFFFF;
+    /**
+     * Flags of the first byte of a response frame, plain responses only use {@link #RESPONSE_SUCCESS}.
+     */
+    static final int RESPONSE_SUCCESS = 0x01;
+    static final int RESPONSE_STREAM = 0x02;
+    static final int RESPONSE_END = 0x04;
+    private static final int MAX_CACHED_NAMES = 1024;
+    private static final Map<String, byte[]> NAME_CACHE = new ConcurrentHashMap<>();
+    private static volatile int maxDecompressedLength = 64 * 1024 * 1024;
+    
+    private EventFrameCodec() {
+    }
+    
+    /**
+     * Compressed bodies claiming a larger original length are rejected before anything is allocated for them.
+     */
+    public static void setMaxDecompressedLength(int maxDecompressedLength) {
+        if (maxDecompressedLength <= 0) {
+            throw new IllegalArgumentException("the max decompressed length must be positive.");
+        }
+        EventFrameCodec.maxDecompressedLength = maxDecompressedLength;
+    }
+    
+    public static byte[] encodeEvent(String eventName, String body) {
+        byte[] name = nameBytes(eventName);
+        int bodyLength = body == null ? 0 : utf8Length(body);
+        byte[] frame = new byte[1 + name.length + 4 + bodyLength];
+        frame[0] = (byte) name.length;
+        System.arraycopy(name, 0, frame, 1, name.length);
+        int offset = 1 + name.length;
+        writeInt(frame, offset, bodyLength);
+        if (bodyLength != 0) {
+            writeUtf8(body, frame, offset + 4);
+        }
+        return frame;
+    }
+    
+    public static byte[] encodeEvent(String eventName, byte[] body) {
+        return encodeEvent(eventName, body == null ? null : ByteBuffer.wrap(body));
+    }
+    
+    /**
+     * Encodes the remaining bytes of {@code body} without changing its position.
+     */
+    public static byte[] encodeEvent(String eventName, ByteBuffer body) {
+        byte[] name = nameBytes(eventName);
+        int bodyLength = body == null ? 0 : body.remaining();
+        byte[] frame = new byte[1 + name.length + 4 + bodyLength];
+        frame[0] = (byte) name.length;
+        System.arraycopy(name, 0, frame, 1, name.length);
+        int offset = 1 + name.length;
+        writeInt(frame, offset, bodyLength);
+        if (bodyLength != 0) {
+            body.duplicate().get(frame, offset + 4, bodyLength);
+        }
+        return frame;
+    }
+    
+    /**
+     * Encodes {@code body} with {@code codec} straight into the frame buffer of the current thread.
+     */
+    public static byte[] encodeEvent(String eventName, NatsCodec codec, Object body) throws IOException {
+        byte[] name = nameBytes(eventName);
+        EventFrameOutput output = EventFrameOutput.get();
+        output.write(name.length);
+        output.write(name, 0, name.length);
+        return finishFrame(output, codec, body);
+    }
+    
+    public static byte[] encodeResponse(boolean success, NatsCodec codec, Object data) throws IOException {
+        EventFrameOutput output = EventFrameOutput.get();
+        output.write(success ? 1 : 0);
+        return finishFrame(output, codec, data);
+    }
+    
+    private static byte[] finishFrame(EventFrameOutput output, NatsCodec codec, Object body) throws IOException {
+        int lengthOffset = output.size();
+        output.writeInt(0);
+        if (body != null) {
+            codec.encode(body, output);
+        }
+        output.patchInt(lengthOffset, output.size() - lengthOffset - 4);
+        return output.toFrame();
+    }
+    
+    public static byte[] encodeResponse(boolean success, String data) {
+        int length = data == null ? 0 : utf8Length(data);
+        byte[] frame = new byte[5 + length];
+        frame[0] = (byte) (success ? 1 : 0);
+        writeInt(frame, 1, length);
+        if (length != 0) {
+            writeUtf8(data, frame, 5);
+        }
+        return frame;
+    }
+    
+    public static byte[] encodeResponse(boolean success, byte[] data) {
+        int length = data == null ? 0 : data.length;
+        byte[] frame = new byte[5 + length];
+        frame[0] = (byte) (success ? 1 : 0);
+        writeInt(frame, 1, length);
+        if (length != 0) {
+            System.arraycopy(data, 0, frame, 5, length);
+        }
+        return frame;
+    }
+    
+    /**
+     * Encodes one chunk of a streamed response, {@code end} marks the last frame of the stream.
+     */
+    public static byte[] encodeStreamChunk(boolean success, boolean end, byte[] data) {
+        byte[] frame = encodeResponse(success, data);
+        frame[0] |= (byte) (RESPONSE_STREAM | (end ? RESPONSE_END : 0));
+        return frame;
+    }
+    
+    public static boolean isStreamEnd(byte[] responseFrame) {
+        return responseFrame.length == 0 || (responseFrame[0] & RESPONSE_STREAM) == 0
+                || (responseFrame[0] & RESPONSE_END) != 0;
+    }
+    
+    /**
+     * Packs event frames into one envelope frame, {@code [byte 0][int bodyLen][frames]}.
+     *
+     * @param frames buffer holding the frames in {@code [0, length)}
+     */
+    public static byte[] encodeEnvelope(byte[] frames, int length) {
+        byte[] envelope = new byte[5 + length];
+        writeInt(envelope, 1, length);
+        System.arraycopy(frames, 0, envelope, 5, length);
+        return envelope;
+    }
+    
+    public static boolean isEnvelope(EventFrame frame) {
+        return frame.getNameLength() == 0;
+    }
+    
+    /**
+     * @return the events packed into {@code envelope}, their name and body refer to the body of the envelope
+     */
+    public static List<EventFrame> decodeEnvelope(EventFrame envelope) {
+        byte[] data = envelope.getBodyData();
+        int offset = envelope.getBodyOffset();
+        int end = offset + envelope.getBodyLength();
+        List<EventFrame> frames = new ArrayList<>();
+        while (offset < end) {
+            EventFrame frame = decodeEvent(data, offset, end - offset);
+            if (isEnvelope(frame)) {
+                throw new IllegalArgumentException("Received abnormal message, envelopes must not be nested.");
+            }
+            frames.add(frame);
+            int lengthOffset = offset + 1 + frame.getNameLength();
+            offset = lengthOffset + 4 + (readInt(data, lengthOffset) & LENGTH_MASK);
+        }
+        return frames;
+    }
+    
+    public static EventFrame decodeEvent(byte[] data) {
+        return decodeEvent(data, 0, data.length);
+    }
+    
+    public static EventFrame decodeEvent(byte[] data, int start, int length) {
+        if (length <= 5) {
+            throw new IllegalArgumentException("Received abnormal NATS data with data length <= 5");
+        }
+        int nameLength = data[start] & 0xFF;
+        int readableBytes = length - 1;
+        if (readableBytes < nameLength + 4) {
+            String info = String.format(
+                    "Received abnormal message, event name length is not the expected size, expected:%s, actual:%s",
+                    nameLength,
+                    readableBytes
+            );
+            throw new IllegalArgumentException(info);
+        }
+        int bodyLengthOffset = start + 1 + nameLength;
+        int lengthField = readInt(data, bodyLengthOffset);
+        int bodyLength = lengthField & LENGTH_MASK;
+        readableBytes = start + length - bodyLengthOffset - 4;
+        if (readableBytes < bodyLength) {
+            String info = String.format(
+                    "Received abnormal message, event body length is not the expected size, expected: %s, actual: %s",
+                    bodyLength,
+                    readableBytes
+            );
+            throw new IllegalArgumentException(info);
+        }
+        if ((lengthField & COMPRESSED) == 0) {
+            return new EventFrame(data, start + 1, nameLength, data, bodyLengthOffset + 4, bodyLength);
+        }
+        try {
+            byte[] body = decompress(data, bodyLengthOffset + 4, bodyLength);
+            return new EventFrame(data, start + 1, nameLength, body, 0, body.length);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Received abnormal message, decompress the event body failed.", e);
+        }
+    }
+    
+    public static Response decodeResponse(byte[] data) {
+        if (data.length < 5) {
+            throw new RuntimeException("Protocol format exception in response data.");
+        }
+        int lengthField = readInt(data, 1);
+        int bodySize = lengthField & LENGTH_MASK;
+        if (data.length - 5 < bodySize) {
+            throw new RuntimeException("Protocol format exception in body data of response");
+        }
+        Response response = new Response();
+        response.setSuccess((data[0] & RESPONSE_SUCCESS) != 0);
+        if ((lengthField & COMPRESSED) == 0) {
+            response.setRaw(data, 5, bodySize);
+            return response;
+        }
+        try {
+            byte[] body = decompress(data, 5, bodySize);
+            response.setRaw(body, 0, body.length);
+        } catch (IOException e) {
+            throw new RuntimeException("Protocol format exception, decompress the body of response failed.", e);
+        }
+        return response;
+    }
+    
+    /**
+     * Compresses the body of an event frame when it is at least {@code threshold} bytes and compression actually
+     * makes it smaller, otherwise the frame is returned unchanged.
+     */
+    public static byte[] compressEvent(byte[] frame, PayloadCompressor compressor, int threshold) throws IOException {
+        return compressBody(frame, 1 + (frame[0] & 0xFF), compressor, threshold);
+    }
+    
+    public static byte[] compressResponse(byte[] frame, PayloadCompressor compressor, int threshold)
+            throws IOException {
+        return compressBody(frame, 1, compressor, threshold);
+    }
+    
+    private static byte[] compressBody(byte[] frame, int lengthOffset, PayloadCompressor compressor, int threshold)
+            throws IOException {
+        int lengthField = readInt(frame, lengthOffset);
+        if ((lengthField & COMPRESSED) != 0 || lengthField < threshold || lengthField == 0) {
+            return frame;
+        }
+        int bodyOffset = lengthOffset + 4;
+        byte[] compressed = compressor.compress(frame, bodyOffset, lengthField);
+        int compressedLength = 5 + compressed.length;
+        if (compressedLength >= lengthField) {
+            return frame;
+        }
+        byte[] result = new byte[bodyOffset + compressedLength];
+        System.arraycopy(frame, 0, result, 0, lengthOffset);
+        writeInt(result, lengthOffset, COMPRESSED | compressedLength);
+        result[bodyOffset] = (byte) compressor.getId();
+        writeInt(result, bodyOffset + 1, lengthField);
+        System.arraycopy(compressed, 0, result, bodyOffset + 5, compressed.length);
+        return result;
+    }
+    
+    private static byte[] decompress(byte[] data, int offset, int length) throws IOException {
+        if (length < 5) {
+            throw new IOException("the compressed body is shorter than its header.");
+        }
+        PayloadCompressor compressor = PayloadCompressors.get(data[offset] & 0xFF);
+        int originalLength = readInt(data, offset + 1);
+        if (originalLength < 0) {
+            throw new IOException("the original length of the compressed body is negative.");
+        }
+        if (originalLength > maxDecompressedLength) {
+            throw new IOException(String.format("the original length %s of the compressed body exceeds %s bytes.",
+                                                originalLength,
+                                                maxDecompressedLength
+            ));
+        }
+        byte[] body = new byte[originalLength];
+        compressor.decompress(data, offset + 5, length - 5, body);
+        return body;
+    }
+    
+    static byte[] nameBytes(String eventName) {
+        byte[] name = NAME_CACHE.get(eventName);
+        if (name != null) {
+            return name;
+        }
+        name = eventName.getBytes(StandardCharsets.UTF_8);
+        if (name.length == 0) {
+            throw new IllegalArgumentException("the event name must not be empty.");
+        }
+        if (name.length > MAX_NAME_LENGTH) {
+            String info = String.format("the length of event name %s exceeds %s bytes.", eventName, MAX_NAME_LENGTH);
+            throw new IllegalArgumentException(info);
+        }
+        if (NAME_CACHE.size() < MAX_CACHED_NAMES) {
+            NAME_CACHE.putIfAbsent(eventName, name);
+        }
+        return name;
+    }
+    
+    static void writeInt(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) (value >>> 24);
+        dst[offset + 1] = (byte) (value >>> 16);
+        dst[offset + 2] = (byte) (value >>> 8);
+        dst[offset + 3] = (byte) value;
+    }
+    
+    static int readInt(byte[] src, int offset) {
+        //@formatter:off
+        return (src[offset] & 0xFF) << 24
+                | (src[offset + 1] & 0xFF) << 16
+                | (src[offset + 2] & 0xFF) << 8
+                | (src[offset + 3] & 0xFF);
+        //@formatter:on
+    }
+    
+    /**
+     * @return the number of bytes {@code value} occupies in UTF-8, unpaired surrogates count as the one byte
+     * replacement {@code '?'} like {@link String#getBytes(java.nio.charset.Charset)} does
+     */
+    static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                bytes += 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(
+                    i + 1))) {
+                bytes += 2;
+                i++;
+            } else if (!Character.isSurrogate(c)) {
+                bytes += 2;
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * Writes {@code value} as UTF-8 starting at {@code offset}, the array must have room for
+     * {@link #utf8Length(String)} bytes.
+     *
+     * @return the offset after the last written byte
+     */
+    static int writeUtf8(String value, byte[] dst, int offset) {
+        int length = value.length();
+        int i = 0;
+        while (i < length) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                break;
+            }
+            dst[offset++] = (byte) c;
+            i++;
+        }
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                dst[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[offset++] = (byte) (0xC0 | c >> 6);
+                dst[offset++] = (byte) (0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(
+                    i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                dst[offset++] = (byte) (0xF0 | codePoint >> 18);
+                dst[offset++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                dst[offset++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                dst[offset++] = (byte) (0x80 | codePoint & 0x3F);
+            } else if (Character.isSurrogate(c)) {
+                dst[offset++] = (byte) '?';
+            } else {
+                dst[offset++] = (byte) (0xE0 | c >> 12);
+                dst[offset++] = (byte) (0x80 | c >> 6 & 0x3F);
+                dst[offset++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return offset;
+    }
+}
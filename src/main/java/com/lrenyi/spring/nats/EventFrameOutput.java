@@ -0,0 +1,66 @@
+package com.lrenyi.spring.nats;
+
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A reusable, per-thread buffer the codecs serialize into while a frame is built.
+ * <p>
+ * The frame header is written first, the codec appends the body, the body length is patched afterwards and the
+ * finished frame is copied out once at its exact size. Buffers which grew beyond {@link #MAX_RETAINED} are
+ * released after use.
+ */
+final class EventFrameOutput extends OutputStream {
+    private static final int MAX_RETAINED = 1024 * 1024;
+    private static final ThreadLocal<EventFrameOutput> LOCAL = ThreadLocal.withInitial(EventFrameOutput::new);
+    private byte[] buffer = new byte[1024];
+    private int size;
+    
+    static EventFrameOutput get() {
+        EventFrameOutput output = LOCAL.get();
+        output.size = 0;
+        return output;
+    }
+    
+    @Override
+    public void write(int b) {
+        ensureCapacity(size + 1);
+        buffer[size++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(size + len);
+        System.arraycopy(b, off, buffer, size, len);
+        size += len;
+    }
+    
+    int size() {
+        return size;
+    }
+    
+    void writeInt(int value) {
+        ensureCapacity(size + 4);
+        EventFrameCodec.writeInt(buffer, size, value);
+        size += 4;
+    }
+    
+    void patchInt(int offset, int value) {
+        EventFrameCodec.writeInt(buffer, offset, value);
+    }
+    
+    byte[] toFrame() {
+        byte[] frame = Arrays.copyOf(buffer, size);
+        if (buffer.length > MAX_RETAINED) {
+            buffer = new byte[1024];
+        }
+        size = 0;
+        return frame;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length << 1));
+        }
+    }
+}
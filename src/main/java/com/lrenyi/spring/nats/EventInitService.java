@@ -20,5 +20,6 @@ public class EventInitService {
             EventProcessor.ALL_EVENT_PROCESSOR.put(processor.getEventType(), processor);
             log.info("discover event processor: {}", processor.getEventType());
         }
+        EventProcessorIndex.rebuild();
     }
 }
@@ -0,0 +1,75 @@
+package com.lrenyi.spring.nats;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A fixed set of single-threaded lanes, events with the same key always run on the same lane and therefore in the
+ * order they were received, while events with different keys run in parallel.
+ * <p>
+ * A full lane blocks the receiving thread instead of reordering or dropping events, so the backlog shows up in
+ * the pending messages of the subscription.
+ */
+@Slf4j
+public class EventLanes {
+    private final Lane[] lanes;
+    
+    public EventLanes(int count, int queueCapacity) {
+        lanes = new Lane[count];
+        for (int i = 0; i < count; i++) {
+            lanes[i] = new Lane(i, queueCapacity);
+        }
+    }
+    
+    public void execute(String key, Runnable task) throws InterruptedException {
+        int hash = key.hashCode();
+        lanes[Math.floorMod(hash ^ (hash >>> 16), lanes.length)].queue.put(task);
+    }
+    
+    /**
+     * @return the events waiting in every lane
+     */
+    public int[] getQueueDepths() {
+        int[] depths = new int[lanes.length];
+        for (int i = 0; i < lanes.length; i++) {
+            depths[i] = lanes[i].queue.size();
+        }
+        return depths;
+    }
+    
+    public void shutdown() {
+        for (Lane lane : lanes) {
+            lane.thread.interrupt();
+        }
+    }
+    
+    private static final class Lane implements Runnable {
+        private final BlockingQueue<Runnable> queue;
+        private final Thread thread;
+        
+        private Lane(int index, int queueCapacity) {
+            queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+            thread = new Thread(this, "nats-event-lane-" + index);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Runnable task;
+                try {
+                    task = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    log.error("", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.lrenyi.spring.nats;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Resolves the processor of an event straight from the UTF-8 name bytes of the received frame.
+ * <p>
+ * An immutable open-addressed table keyed by the name bytes, built by {@link EventInitService#init()} from
+ * {@link EventProcessor#ALL_EVENT_PROCESSOR}, so dispatch neither decodes nor hashes a String. Processors put into
+ * the map later are still found through the map, just without this shortcut, until the index is rebuilt.
+ */
+public final class EventProcessorIndex {
+    private static volatile EventProcessorIndex current = new EventProcessorIndex(Map.of());
+    private final byte[][] names;
+    private final int[] hashes;
+    private final EventProcessor[] processors;
+    private final int mask;
+    
+    private EventProcessorIndex(Map<String, EventProcessor> all) {
+        int capacity = Integer.highestOneBit(Math.max(2, all.size() * 2 - 1)) << 1;
+        names = new byte[capacity][];
+        hashes = new int[capacity];
+        processors = new EventProcessor[capacity];
+        mask = capacity - 1;
+        all.forEach((type, processor) -> {
+            byte[] name = type.getBytes(StandardCharsets.UTF_8);
+            int hash = hash(name, 0, name.length);
+            int slot = hash & mask;
+            while (names[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            hashes[slot] = hash;
+            processors[slot] = processor;
+        });
+    }
+    
+    /**
+     * Rebuilds the index from the processors currently registered.
+     */
+    public static void rebuild() {
+        current = new EventProcessorIndex(Map.copyOf(EventProcessor.ALL_EVENT_PROCESSOR));
+    }
+    
+    /**
+     * @return the processor of the event, or null when there is none
+     */
+    public static EventProcessor find(EventFrame frame) {
+        byte[] data = frame.getData();
+        int offset = frame.getNameOffset();
+        int length = frame.getNameLength();
+        EventProcessor processor = current.lookup(data, offset, length);
+        if (processor != null) {
+            return processor;
+        }
+        return EventProcessor.ALL_EVENT_PROCESSOR.get(frame.name());
+    }
+    
+    private EventProcessor lookup(byte[] data, int offset, int length) {
+        int hash = hash(data, offset, length);
+        int slot = hash & mask;
+        byte[] name;
+        while ((name = names[slot]) != null) {
+            if (hashes[slot] == hash && Arrays.equals(name, 0, name.length, data, offset, offset + length)) {
+                return processors[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+    
+    /**
+     * FNV-1a, spread so that the low bits used for the slot depend on every byte.
+     */
+    private static int hash(byte[] data, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ (data[i] & 0xFF)) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,66 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Coalesces the flushes of fire-and-forget publishes.
+ * <p>
+ * A connection is flushed after {@code flushSize} unflushed publishes or, when scheduled, every flush interval
+ * if anything was published since the last flush. With both disabled the connection writer decides when to
+ * send, which already batches whatever is queued.
+ */
+@Slf4j
+public class FlushCoalescer {
+    private final int flushSize;
+    private final boolean scheduled;
+    private final Map<Connection, AtomicInteger> unflushed = new ConcurrentHashMap<>();
+    
+    public FlushCoalescer(int flushSize, boolean scheduled) {
+        this.flushSize = flushSize;
+        this.scheduled = scheduled;
+    }
+    
+    public void published(Connection connection) {
+        if (flushSize <= 0 && !scheduled) {
+            return;
+        }
+        AtomicInteger count = unflushed.computeIfAbsent(connection, k -> new AtomicInteger());
+        if (flushSize <= 0) {
+            count.incrementAndGet();
+            return;
+        }
+        // only the publish reaching flushSize flushes, the publishes racing with it stay counted
+        int before = count.getAndUpdate(n -> n + 1 >= flushSize ? n + 1 - flushSize : n + 1);
+        if (before + 1 >= flushSize) {
+            flush(connection);
+        }
+    }
+    
+    public void flushAll() {
+        unflushed.forEach((connection, count) -> {
+            if (count.getAndSet(0) > 0) {
+                flush(connection);
+            }
+        });
+    }
+    
+    public void remove(Connection connection) {
+        unflushed.remove(connection);
+    }
+    
+    private void flush(Connection connection) {
+        if (connection.getStatus() != Connection.Status.CONNECTED) {
+            return;
+        }
+        try {
+            connection.flushBuffer();
+        } catch (IOException e) {
+            log.warn("flush the published events of nats failed.", e);
+        }
+    }
+}
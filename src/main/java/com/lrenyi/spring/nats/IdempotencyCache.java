@@ -0,0 +1,129 @@
+package com.lrenyi.spring.nats;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Responder-side memory of the responses to requests carrying a request id, so a retried request is answered
+ * without processing it again.
+ * <p>
+ * The first request of an id is processed as usual and its response frame is remembered when it is sent. A
+ * duplicate arriving while the first one is still processed waits for that response, a later one gets the
+ * remembered response. Failure responses are not remembered, the next retry is processed again. Entries expire
+ * after the window and the least recently used ones are evicted beyond {@code maxEntries}; duplicates still
+ * waiting for a dropped entry are answered with a failure response.
+ */
+public class IdempotencyCache {
+    private final long windowNanos;
+    private final Map<String, Entry> entries;
+    private final Map<String, Entry> awaitingReply = new ConcurrentHashMap<>();
+    private final LongAdder duplicates = new LongAdder();
+    
+    public IdempotencyCache(int maxEntries, Duration window) {
+        this.windowNanos = window.toNanos();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() <= maxEntries) {
+                    return false;
+                }
+                forget(eldest.getValue());
+                return true;
+            }
+        };
+    }
+    
+    /**
+     * Registers a request, the response sent to {@code replyTo} will be remembered for {@code requestId}.
+     *
+     * @return null when the request has to be processed, otherwise the pending or remembered response frame of
+     * the same request id which has to be sent instead
+     */
+    public synchronized CompletableFuture<byte[]> join(String requestId, String replyTo) {
+        long now = System.nanoTime();
+        Entry entry = entries.get(requestId);
+        if (entry != null && now - entry.created < windowNanos) {
+            duplicates.increment();
+            return entry.response;
+        }
+        if (entry != null) {
+            forget(entry);
+        }
+        entry = new Entry(requestId, replyTo, now);
+        entries.put(requestId, entry);
+        awaitingReply.put(replyTo, entry);
+        return null;
+    }
+    
+    /**
+     * Called with every response frame sent, remembers it when it answers a registered request.
+     */
+    public void replied(String replyTo, byte[] responseFrame) {
+        if (awaitingReply.isEmpty()) {
+            return;
+        }
+        Entry entry = awaitingReply.remove(replyTo);
+        if (entry == null) {
+            return;
+        }
+        if ((responseFrame[0] & EventFrameCodec.RESPONSE_SUCCESS) == 0) {
+            synchronized (this) {
+                entries.remove(entry.requestId, entry);
+            }
+        }
+        entry.response.complete(responseFrame);
+    }
+    
+    /**
+     * Drops expired entries, including those whose request was never answered, the duplicates waiting for them
+     * get a failure response.
+     */
+    public synchronized void purgeExpired() {
+        long now = System.nanoTime();
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (now - entry.created >= windowNanos) {
+                iterator.remove();
+                forget(entry);
+            }
+        }
+    }
+    
+    /**
+     * @return the duplicate requests answered without processing them again
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    private void forget(Entry entry) {
+        awaitingReply.remove(entry.replyTo, entry);
+        if (!entry.response.isDone()) {
+            String message = "the request " + entry.requestId + " was not answered in time, retry it.";
+            entry.response.complete(EventFrameCodec.encodeResponse(false, message));
+        }
+    }
+    
+    private static final class Entry {
+        private final String requestId;
+        private final String replyTo;
+        private final long created;
+        private final CompletableFuture<byte[]> response = new CompletableFuture<>();
+        
+        private Entry(String requestId, String replyTo, long created) {
+            this.requestId = requestId;
+            this.replyTo = replyTo;
+            this.created = created;
+        }
+    }
+}
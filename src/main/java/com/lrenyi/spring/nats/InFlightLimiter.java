@@ -0,0 +1,230 @@
+package com.lrenyi.spring.nats;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the requests waiting for a response, globally and per subject.
+ * <p>
+ * A request takes a permit of the global limit and of its subject before it is published and gives them back when
+ * its response arrives or it times out. The caller is never blocked: when no permit is free the request waits in
+ * a queue for at most {@code maxWait} and the queued requests are admitted in order of arrival by the releases
+ * that free their permits, a zero wait rejects at once. A request that cannot be admitted fails with a
+ * {@link RejectedExecutionException}.
+ */
+public class InFlightLimiter {
+    private final Semaphore global;
+    private final int globalLimit;
+    private final int perSubject;
+    private final Map<String, Integer> subjectLimits;
+    private final long maxWaitNanos;
+    /**
+     * The requests in flight per subject, a subject is removed as soon as none is left.
+     */
+    private final Map<String, Integer> subjects = new ConcurrentHashMap<>();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder queued = new LongAdder();
+    
+    /**
+     * @param global        the maximum of requests in flight, 0 for no limit
+     * @param perSubject    the maximum of requests in flight to any single subject, 0 for no limit
+     * @param subjectLimits overrides of {@code perSubject} for single subjects
+     * @param maxWait       how long a request may wait for a permit, null or zero rejects at once
+     */
+    public InFlightLimiter(int global, int perSubject, Map<String, Integer> subjectLimits, Duration maxWait) {
+        this.global = global > 0 ? new Semaphore(global) : null;
+        this.globalLimit = global;
+        this.perSubject = perSubject;
+        this.subjectLimits = Map.copyOf(subjectLimits);
+        this.maxWaitNanos = maxWait == null ? 0 : maxWait.toNanos();
+    }
+    
+    public static InFlightLimiter of(NatsProperties properties) {
+        return new InFlightLimiter(properties.getMaxInFlight(),
+                                   properties.getMaxInFlightPerSubject(),
+                                   properties.getSubjectMaxInFlight(),
+                                   properties.getInFlightMaxWait()
+        );
+    }
+    
+    public CompletableFuture<Void> acquire(String subject) {
+        return acquire(subject, 1);
+    }
+    
+    /**
+     * Takes the permits for {@code permits} requests to {@code subject} at once, {@link #release(String, int)}
+     * must be called for every permit after the returned future completed normally. Cancelling the returned future
+     * withdraws a queued request.
+     *
+     * @return a future completed when the permits are taken, or failed with a {@link RejectedExecutionException}
+     * when they exceed the limit or did not become free in time
+     */
+    public CompletableFuture<Void> acquire(String subject, int permits) {
+        int subjectLimit = subjectLimit(subject);
+        if (global == null && subjectLimit <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (global != null && permits > globalLimit) {
+            return CompletableFuture.failedFuture(reject(permits + " requests exceed the in-flight limit of "
+                                                                 + globalLimit));
+        }
+        if (subjectLimit > 0 && permits > subjectLimit) {
+            return CompletableFuture.failedFuture(reject(permits + " requests exceed the in-flight limit of "
+                                                                 + subjectLimit + " of subject " + subject));
+        }
+        // queued requests go first, a new one only takes a free permit when none is waiting
+        if (waiters.isEmpty() && tryAcquire(subject, permits)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (maxWaitNanos <= 0) {
+            return CompletableFuture.failedFuture(reject("the requests in flight to subject " + subject
+                                                                 + " reached the limit"));
+        }
+        Waiter waiter = new Waiter(subject, permits);
+        waiters.add(waiter);
+        queued.increment();
+        CompletableFuture.delayedExecutor(maxWaitNanos, TimeUnit.NANOSECONDS).execute(() -> {
+            if (waiters.remove(waiter)) {
+                waiter.future.completeExceptionally(reject("no in-flight permit to subject " + subject
+                                                                   + " became free in time"));
+                admitWaiters();
+            }
+        });
+        // a caller giving up leaves the queue, which may let the requests behind it in
+        waiter.future.whenComplete((r, e) -> {
+            if (waiter.future.isCancelled() && waiters.remove(waiter)) {
+                admitWaiters();
+            }
+        });
+        // a release may have happened between the failed try and the enqueue
+        admitWaiters();
+        return waiter.future;
+    }
+    
+    public void release(String subject) {
+        release(subject, 1);
+    }
+    
+    public void release(String subject, int permits) {
+        free(subject, permits);
+        admitWaiters();
+    }
+    
+    /**
+     * @return the requests rejected because the limit was reached
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * @return the requests which had to wait for a permit, whether they finally got one or not
+     */
+    public long getQueuedCount() {
+        return queued.sum();
+    }
+    
+    /**
+     * @return the permits of the global limit which are free, -1 when there is no global limit
+     */
+    public int getAvailablePermits() {
+        return global == null ? -1 : global.availablePermits();
+    }
+    
+    /**
+     * @return the subjects with requests in flight
+     */
+    int getSubjectCount() {
+        return subjects.size();
+    }
+    
+    private int subjectLimit(String subject) {
+        return subjectLimits.getOrDefault(subject, perSubject);
+    }
+    
+    private boolean tryAcquire(String subject, int permits) {
+        if (global != null && !global.tryAcquire(permits)) {
+            return false;
+        }
+        int limit = subjectLimit(subject);
+        if (limit <= 0) {
+            return true;
+        }
+        boolean[] admitted = new boolean[1];
+        subjects.compute(subject, (k, inFlight) -> {
+            int current = inFlight == null ? 0 : inFlight;
+            admitted[0] = current + permits <= limit;
+            return admitted[0] ? current + permits : inFlight;
+        });
+        if (!admitted[0] && global != null) {
+            global.release(permits);
+        }
+        return admitted[0];
+    }
+    
+    /**
+     * Hands the free permits to the waiting requests in order and stops at the first one they do not suffice for,
+     * so a large batch is not overtaken by the requests queued behind it. The admitted ones are completed outside
+     * the lock as their dependent stages publish the request.
+     */
+    private void admitWaiters() {
+        if (waiters.isEmpty()) {
+            return;
+        }
+        List<Waiter> admitted = new ArrayList<>();
+        synchronized (waiters) {
+            for (Waiter waiter : waiters) {
+                if (waiter.future.isDone()) {
+                    waiters.remove(waiter);
+                    continue;
+                }
+                if (!tryAcquire(waiter.subject, waiter.permits)) {
+                    break;
+                }
+                if (waiters.remove(waiter)) {
+                    admitted.add(waiter);
+                } else {
+                    free(waiter.subject, waiter.permits);
+                }
+            }
+        }
+        for (Waiter waiter : admitted) {
+            if (!waiter.future.complete(null)) {
+                // cancelled by its caller in the meantime
+                free(waiter.subject, waiter.permits);
+                admitWaiters();
+            }
+        }
+    }
+    
+    private void free(String subject, int permits) {
+        if (subjectLimit(subject) > 0) {
+            subjects.computeIfPresent(subject, (k, inFlight) -> inFlight > permits ? inFlight - permits : null);
+        }
+        if (global != null) {
+            global.release(permits);
+        }
+    }
+    
+    private RejectedExecutionException reject(String message) {
+        rejected.increment();
+        return new RejectedExecutionException(message + ", the request is rejected.");
+    }
+    
+    private record Waiter(String subject, int permits, CompletableFuture<Void> future) {
+        private Waiter(String subject, int permits) {
+            this(subject, permits, new CompletableFuture<>());
+        }
+    }
+}
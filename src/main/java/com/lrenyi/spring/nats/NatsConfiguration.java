@@ -68,7 +68,14 @@ public class NatsConfiguration {
                 
                 @Override
                 public void slowConsumerDetected(Connection conn, Consumer consumer) {
-                    log.info("nats connection slow consumer detected");
+                    log.warn("nats slow consumer detected, {} pending messages of limit {}, {} bytes of limit {},"
+                                     + " {} messages dropped.",
+                             consumer.getPendingMessageCount(),
+                             consumer.getPendingMessageLimit(),
+                             consumer.getPendingByteCount(),
+                             consumer.getPendingByteLimit(),
+                             consumer.getDroppedCount()
+                    );
                 }
             });
             nc = Nats.connect(builder.build());
@@ -16,7 +16,15 @@
 
 package com.lrenyi.spring.nats;
 
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import io.nats.client.Consumer;
 import io.nats.client.Options;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import lombok.Getter;
+import lombok.Setter;
 import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.context.properties.ConfigurationProperties;
@@ -27,14 +35,196 @@ import org.springframework.context.annotation.Role;
  * attributes, setters and getters. A NatsProperties configuration is used
  * during autoconfigure to initialize the underlying NATs connection.
  */
+@Getter
+@Setter
 @ConditionalOnClass({Options.class})
 @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
 @ConfigurationProperties(prefix = "app.template.nats")
 public class NatsProperties extends NatsConnectionProperties {
     
+    /**
+     * Interval at which pending requests are checked for an expired deadline, this is the resolution of
+     * request timeouts.
+     */
+    private Duration requestSweepInterval = Duration.ofMillis(10);
+    /**
+     * How the subscriptions of @Subscribe methods are assigned to dispatcher threads.
+     */
+    private DispatcherStrategy dispatcherStrategy = DispatcherStrategy.PER_SUBSCRIPTION;
+    /**
+     * Dispatchers per connection with the pool dispatcher strategy.
+     */
+    private int dispatcherPoolSize = Runtime.getRuntime().availableProcessors();
+    /**
+     * Messages a subscription keeps pending at most before the client drops further ones, 0 means unlimited.
+     * Overridden per method by @Subscribe pendingMessageLimit with the per subscription dispatcher strategy.
+     */
+    private long pendingMessageLimit = Consumer.DEFAULT_MAX_MESSAGES;
+    /**
+     * Bytes a subscription keeps pending at most before the client drops further messages, 0 means unlimited.
+     */
+    private long pendingByteLimit = Consumer.DEFAULT_MAX_BYTES;
+    /**
+     * What happens when the pending messages of a subscription reach slowConsumerThreshold of its limits.
+     */
+    private SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.LOG;
+    /**
+     * Fraction of the pending limits at which a subscription counts as slow.
+     */
+    private double slowConsumerThreshold = 0.8;
+    /**
+     * Interval at which the pending messages and dropped counts of the subscriptions are checked.
+     */
+    private Duration slowConsumerCheckInterval = Duration.ofSeconds(1);
+    /**
+     * Flush the connection after this many events published without reply, 0 leaves it to the connection writer.
+     */
+    private int publishFlushSize;
+    /**
+     * Flush connections with events published without reply at this interval, empty or 0 disables it.
+     */
+    private Duration publishFlushInterval;
+    /**
+     * Codec used by the typed api for event types without an entry in eventCodecs.
+     */
+    private String defaultCodec = NatsCodecs.JSON;
+    /**
+     * Codec used by the typed api per event type, e.g. json, cbor or the name of a registered codec.
+     */
+    private Map<String, String> eventCodecs = new HashMap<>();
+    /**
+     * Compressor for event and response bodies: deflate, lz4, zstd or the name of a registered compressor, empty
+     * disables compression. Receivers decompress whatever they get regardless of this setting.
+     */
+    private String compression;
+    /**
+     * Bodies smaller than this many bytes are never compressed.
+     */
+    private int compressionThreshold = 16 * 1024;
+    /**
+     * Compressed bodies received are rejected when they would decompress to more than this many bytes.
+     */
+    private int maxDecompressedSize = 64 * 1024 * 1024;
+    /**
+     * Chunks of a streamed response a caller accepts before the responder has to wait for credit.
+     */
+    private int streamWindow = 16;
+    /**
+     * How long a streaming responder waits for credit before it gives up on the caller.
+     */
+    private Duration streamCreditTimeout = Duration.ofSeconds(30);
+    /**
+     * Requests waiting for a response at most, further requests wait for inFlightMaxWait and are then rejected. 0
+     * disables the limit.
+     */
+    private int maxInFlight;
+    /**
+     * Requests waiting for a response from any single subject at most, 0 disables the limit.
+     */
+    private int maxInFlightPerSubject;
+    /**
+     * The maximum of requests in flight per subject, overrides maxInFlightPerSubject.
+     */
+    private Map<String, Integer> subjectMaxInFlight = new HashMap<>();
+    /**
+     * How long a request waits for a free slot when the in-flight limit is reached, empty or 0 rejects at once.
+     */
+    private Duration inFlightMaxWait;
+    /**
+     * Size of the envelopes that batched events are packed into, see TemplateNatsService#publishEventBatched.
+     */
+    private int batchMaxBytes = 64 * 1024;
+    /**
+     * How long a batched event waits at most for its envelope to fill up.
+     */
+    private Duration batchLinger = Duration.ofMillis(5);
+    /**
+     * Where received events are processed, on the dispatcher thread or on a virtual thread per event.
+     */
+    private EventExecution eventExecution = EventExecution.DISPATCHER;
+    /**
+     * Events processed on virtual threads at once with event-execution virtual, 0 for no limit. The dispatcher
+     * waits for a free slot, events of a type with a bulkhead run in the bulkhead and do not take a slot.
+     */
+    private int virtualMaxConcurrency = 1024;
+    /**
+     * Threads events are spread over by their key with event-execution ordered.
+     */
+    private int orderedLanes = Runtime.getRuntime().availableProcessors();
+    /**
+     * Events waiting per lane at most before the receiving thread is blocked.
+     */
+    private int orderedLaneCapacity = 1024;
+    /**
+     * Header carrying the ordering key of an event.
+     */
+    private String eventKeyHeader = "Nats-Event-Key";
+    /**
+     * Dedicated worker pools per event type, events of other types are processed as configured by eventExecution.
+     * They cannot be combined with the ordered event execution, whose order a pool would not keep.
+     */
+    private Map<String, Bulkhead> bulkheads = new HashMap<>();
+    /**
+     * How long responders remember the response to a request carrying a request id, retries within the window
+     * are answered from memory. Empty or 0 disables it.
+     */
+    private Duration idempotencyWindow;
+    /**
+     * Responses remembered for retried requests at most.
+     */
+    private int idempotencyMaxEntries = 10000;
+    /**
+     * Header carrying the id of a request which may be retried.
+     */
+    private String requestIdHeader = "Nats-Request-Id";
+    /**
+     * Event types whose responses callers cache, for idempotent lookups only.
+     */
+    private Map<String, Cache> responseCaches = new HashMap<>();
+    /**
+     * Subject on which cached responses are invalidated, the message body is the event type or empty for all.
+     * Empty disables invalidation by broadcast.
+     */
+    private String responseCacheInvalidationSubject;
+    
     /**
      * Default Constructor.
      */
     public NatsProperties() {
     }
+    
+    public NatsCodec codecFor(String eventName) {
+        return NatsCodecs.get(eventCodecs.getOrDefault(eventName, defaultCodec));
+    }
+    
+    @Getter
+    @Setter
+    public static class Bulkhead {
+        /**
+         * Worker threads processing the events of the type, an async processor holds its thread until its stage
+         * completed.
+         */
+        private int threads = 1;
+        /**
+         * Events waiting for a worker at most.
+         */
+        private int queueCapacity = 1024;
+        /**
+         * What happens to events arriving while the queue is full.
+         */
+        private EventBulkhead.Policy policy = EventBulkhead.Policy.REJECT;
+    }
+    
+    @Getter
+    @Setter
+    public static class Cache {
+        /**
+         * Responses kept at most, the least recently used ones are evicted first.
+         */
+        private int maxEntries = 1000;
+        /**
+         * How long a response is served from the cache.
+         */
+        private Duration ttl = Duration.ofMinutes(1);
+    }
 }
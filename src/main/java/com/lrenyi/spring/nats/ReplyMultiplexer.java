@@ -0,0 +1,336 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Routes request replies of one connection through a single wildcard inbox subscription.
+ * <p>
+ * Every request gets a reply subject of the form {@code <inbox>.<token>}, the pending future is kept in a
+ * correlation map keyed by the token, and requests which are not answered in time are failed by
+ * {@link #sweep()}. A request therefore costs exactly one PUB and no SUB/UNSUB round trip.
+ */
+@Slf4j
+public class ReplyMultiplexer {
+    @Getter
+    private final Connection connection;
+    private final String inboxPrefix;
+    private final Dispatcher dispatcher;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, PendingReply> pending = new ConcurrentHashMap<>();
+    
+    public ReplyMultiplexer(Connection connection) {
+        this.connection = connection;
+        this.inboxPrefix = connection.createInbox() + ".";
+        this.dispatcher = connection.createDispatcher(this::onReply);
+        this.dispatcher.subscribe(inboxPrefix + "*");
+    }
+    
+    public CompletableFuture<Message> request(String subject, byte[] data, Duration timeout) {
+        return request(subject, null, data, timeout);
+    }
+    
+    public CompletableFuture<Message> request(String subject, Headers headers, byte[] data, Duration timeout) {
+        SingleReply reply = new SingleReply(System.nanoTime() + timeout.toNanos());
+        publish(subject, headers, data, reply);
+        return reply.future;
+    }
+    
+    /**
+     * Publishes once and collects the replies of every responder until {@code maxResponses} arrived or the
+     * deadline passed. At the deadline the future completes with what was collected if that are at least
+     * {@code minResponses}, otherwise it fails with a {@link TimeoutException}.
+     */
+    public CompletableFuture<List<Message>> gather(String subject,
+                                                   byte[] data,
+                                                   int maxResponses,
+                                                   int minResponses,
+                                                   Duration timeout) {
+        GatherReply reply = new GatherReply(System.nanoTime() + timeout.toNanos(), maxResponses, minResponses);
+        publish(subject, data, reply);
+        return reply.future;
+    }
+    
+    /**
+     * Publishes once and hands every reply to {@code listener} until it reports the end of the stream. The
+     * deadline is an idle timeout, it is pushed back by {@code idleTimeout} whenever a reply arrives and does not
+     * run while the listener is {@link StreamListener#isPaused() paused}.
+     */
+    public void stream(String subject, Headers headers, byte[] data, Duration idleTimeout, StreamListener listener) {
+        publish(subject, headers, data, new StreamReply(idleTimeout.toNanos(), listener));
+    }
+    
+    private void publish(String subject, byte[] data, PendingReply reply) {
+        publish(subject, null, data, reply);
+    }
+    
+    private void publish(String subject, Headers headers, byte[] data, PendingReply reply) {
+        String token = Long.toString(sequence.incrementAndGet(), 36);
+        pending.put(token, reply);
+        try {
+            connection.publish(subject, inboxPrefix + token, headers, data);
+        } catch (RuntimeException e) {
+            pending.remove(token);
+            throw e;
+        }
+    }
+    
+    /**
+     * Registers and publishes all requests before flushing the connection once, so the whole batch leaves in as
+     * few writes as possible and the replies are awaited concurrently.
+     */
+    public List<CompletableFuture<Message>> requestAll(String subject, List<byte[]> data, Duration timeout) {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        List<CompletableFuture<Message>> futures = new ArrayList<>(data.size());
+        for (byte[] item : data) {
+            String token = Long.toString(sequence.incrementAndGet(), 36);
+            SingleReply reply = new SingleReply(deadline);
+            pending.put(token, reply);
+            try {
+                connection.publish(subject, inboxPrefix + token, item);
+            } catch (RuntimeException e) {
+                pending.remove(token);
+                futures.forEach(future -> future.cancel(false));
+                throw e;
+            }
+            futures.add(reply.future);
+        }
+        try {
+            connection.flushBuffer();
+        } catch (IOException e) {
+            log.warn("flush the batch of {} requests failed, they will be sent by the writer later.", data.size(), e);
+        }
+        return futures;
+    }
+    
+    public int pendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Fails every pending request whose deadline has passed and drops the ones the caller already gave up on.
+     */
+    public void sweep() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, PendingReply>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            PendingReply reply = iterator.next().getValue();
+            if (reply.isDone()) {
+                iterator.remove();
+            } else if (reply.isExpired(now)) {
+                iterator.remove();
+                reply.expire();
+            }
+        }
+    }
+    
+    public void close() {
+        try {
+            if (dispatcher.isActive()) {
+                connection.closeDispatcher(dispatcher);
+            }
+        } catch (IllegalStateException e) {
+            log.debug("close reply dispatcher failed, the connection is already closed.", e);
+        }
+        IllegalStateException closed = new IllegalStateException("the connection of nats was closed.");
+        pending.values().forEach(reply -> reply.fail(closed));
+        pending.clear();
+    }
+    
+    private void onReply(Message message) {
+        String subject = message.getSubject();
+        if (subject.length() <= inboxPrefix.length()) {
+            return;
+        }
+        String token = subject.substring(inboxPrefix.length());
+        PendingReply reply = pending.get(token);
+        if (reply == null) {
+            log.debug("discard late or unknown response on {}", subject);
+            return;
+        }
+        if (reply.accept(message)) {
+            pending.remove(token);
+        }
+    }
+    
+    /**
+     * Receives the replies of a streamed request on the dispatcher thread of the multiplexer, which all replies of
+     * the connection share, so it must hand them off instead of processing them.
+     */
+    public interface StreamListener {
+        
+        /**
+         * @return true when the message was the last one of the stream
+         */
+        boolean onReply(Message message);
+        
+        void onError(Throwable cause);
+        
+        /**
+         * @return true when the listener is no longer interested in replies, e.g. it was cancelled
+         */
+        boolean isDone();
+        
+        /**
+         * @return true while the responder is not expected to send, e.g. because the listener did not grant it
+         * credit yet
+         */
+        boolean isPaused();
+    }
+    
+    private abstract static class PendingReply {
+        volatile long deadline;
+        
+        PendingReply(long deadline) {
+            this.deadline = deadline;
+        }
+        
+        /**
+         * @return true when no further reply is expected
+         */
+        abstract boolean accept(Message message);
+        
+        abstract boolean isDone();
+        
+        boolean isExpired(long now) {
+            return now - deadline >= 0;
+        }
+        
+        abstract void expire();
+        
+        abstract void fail(Throwable cause);
+    }
+    
+    private static final class SingleReply extends PendingReply {
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        
+        private SingleReply(long deadline) {
+            super(deadline);
+        }
+        
+        @Override
+        boolean accept(Message message) {
+            future.complete(message);
+            return true;
+        }
+        
+        @Override
+        boolean isDone() {
+            return future.isDone();
+        }
+        
+        @Override
+        void expire() {
+            future.completeExceptionally(new TimeoutException("waiting for the response of nats timeout."));
+        }
+        
+        @Override
+        void fail(Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+    }
+    
+    private static final class StreamReply extends PendingReply {
+        private final long idleTimeout;
+        private final StreamListener listener;
+        
+        private StreamReply(long idleTimeout, StreamListener listener) {
+            super(System.nanoTime() + idleTimeout);
+            this.idleTimeout = idleTimeout;
+            this.listener = listener;
+        }
+        
+        @Override
+        boolean accept(Message message) {
+            deadline = System.nanoTime() + idleTimeout;
+            return listener.onReply(message) || listener.isDone();
+        }
+        
+        @Override
+        boolean isDone() {
+            return listener.isDone();
+        }
+        
+        @Override
+        boolean isExpired(long now) {
+            if (listener.isPaused()) {
+                deadline = now + idleTimeout;
+                return false;
+            }
+            return super.isExpired(now);
+        }
+        
+        @Override
+        void expire() {
+            listener.onError(new TimeoutException("waiting for the next chunk of the nats stream timeout."));
+        }
+        
+        @Override
+        void fail(Throwable cause) {
+            listener.onError(cause);
+        }
+    }
+    
+    private static final class GatherReply extends PendingReply {
+        private final CompletableFuture<List<Message>> future = new CompletableFuture<>();
+        private final List<Message> messages = new ArrayList<>();
+        private final int maxResponses;
+        private final int minResponses;
+        
+        private GatherReply(long deadline, int maxResponses, int minResponses) {
+            super(deadline);
+            this.maxResponses = maxResponses;
+            this.minResponses = minResponses;
+        }
+        
+        @Override
+        synchronized boolean accept(Message message) {
+            if (future.isDone()) {
+                return true;
+            }
+            messages.add(message);
+            if (messages.size() >= maxResponses) {
+                future.complete(List.copyOf(messages));
+                return true;
+            }
+            return false;
+        }
+        
+        @Override
+        boolean isDone() {
+            return future.isDone();
+        }
+        
+        @Override
+        synchronized void expire() {
+            if (messages.size() >= minResponses) {
+                future.complete(List.copyOf(messages));
+                return;
+            }
+            String info = String.format("only %s of at least %s responses of nats arrived in time.",
+                                        messages.size(),
+                                        minResponses
+            );
+            future.completeExceptionally(new TimeoutException(info));
+        }
+        
+        @Override
+        void fail(Throwable cause) {
+            future.completeExceptionally(cause);
+        }
+    }
+}
@@ -1,11 +1,88 @@
 package com.lrenyi.spring.nats;
 
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import lombok.Getter;
 import lombok.Setter;
 
-@Getter
-@Setter
 public class Response {
+    @Getter
+    @Setter
     private boolean success;
     private String data;
+    private byte[] raw;
+    private int rawOffset;
+    private int rawLength;
+    
+    /**
+     * @return the response data decoded as UTF-8, decoded on first access when the response was received
+     */
+    public String getData() {
+        if (data == null && raw != null) {
+            data = new String(raw, rawOffset, rawLength, StandardCharsets.UTF_8);
+        }
+        return data;
+    }
+    
+    public void setData(String data) {
+        this.data = data;
+        this.raw = null;
+    }
+    
+    /**
+     * Not named as a getter, so the serialized form of a response keeps only success and data.
+     *
+     * @return a copy of the response data without any charset decoding
+     */
+    public byte[] toBytes() {
+        if (raw != null) {
+            return Arrays.copyOfRange(raw, rawOffset, rawOffset + rawLength);
+        }
+        return data == null ? null : data.getBytes(StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * @return a read-only view of the response data, no copy is made for a received response
+     */
+    public ByteBuffer asReadOnlyBuffer() {
+        if (raw != null) {
+            return ByteBuffer.wrap(raw, rawOffset, rawLength).slice().asReadOnlyBuffer();
+        }
+        byte[] bytes = toBytes();
+        return bytes == null ? null : ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+    
+    /**
+     * Decodes the response data with {@code codec} directly from the received bytes.
+     */
+    public <T> T getData(NatsCodec codec, Class<T> type) throws IOException {
+        if (raw != null) {
+            return codec.decode(raw, rawOffset, rawLength, type);
+        }
+        byte[] bytes = toBytes();
+        return bytes == null ? null : codec.decode(bytes, 0, bytes.length, type);
+    }
+    
+    /**
+     * @return a response with the same success and data, sharing the received bytes which are never modified
+     */
+    Response copy() {
+        Response copy = new Response();
+        copy.success = success;
+        copy.data = data;
+        copy.raw = raw;
+        copy.rawOffset = rawOffset;
+        copy.rawLength = rawLength;
+        return copy;
+    }
+    
+    void setRaw(byte[] raw, int offset, int length) {
+        this.raw = raw;
+        this.rawOffset = offset;
+        this.rawLength = length;
+        this.data = null;
+    }
 }
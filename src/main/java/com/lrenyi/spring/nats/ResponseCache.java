@@ -0,0 +1,139 @@
+package com.lrenyi.spring.nats;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Caller-side cache of the responses to idempotent lookup events, enabled per event type.
+ * <p>
+ * Responses are keyed by subject, event name and body, kept for a time to live and evicted least recently used
+ * beyond the configured size. Concurrent lookups of the same key share one request, and only successful responses
+ * are kept. Every hit gets a copy of the cached response, so callers may modify what they get.
+ */
+public class ResponseCache {
+    private final Map<String, Region> regions = new HashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    public ResponseCache(Map<String, NatsProperties.Cache> caches) {
+        caches.forEach((eventName, cache) -> {
+            regions.put(eventName, new Region(cache.getMaxEntries(), cache.getTtl()));
+        });
+    }
+    
+    public boolean isEmpty() {
+        return regions.isEmpty();
+    }
+    
+    /**
+     * @return the cached response, or the response of {@code request} which is cached when it succeeds; requests
+     * of event types without a cache are sent as they are
+     */
+    public CompletableFuture<Response> get(String subject,
+                                           String eventName,
+                                           String body,
+                                           Supplier<CompletableFuture<Response>> request) {
+        Region region = regions.get(eventName);
+        if (region == null) {
+            return request.get();
+        }
+        Key key = new Key(subject, body);
+        CompletableFuture<Response> cached = region.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached.thenApply(Response::copy);
+        }
+        misses.increment();
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        CompletableFuture<Response> existing = region.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing.thenApply(Response::copy);
+        }
+        request.get().whenComplete((response, e) -> {
+            if (e != null || !response.isSuccess()) {
+                region.remove(key, future);
+            }
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(response);
+            }
+        });
+        return future.thenApply(Response::copy);
+    }
+    
+    public void invalidate(String eventName) {
+        Region region = regions.get(eventName);
+        if (region != null) {
+            region.clear();
+        }
+    }
+    
+    public void invalidateAll() {
+        regions.values().forEach(Region::clear);
+    }
+    
+    public long getHitCount() {
+        return hits.sum();
+    }
+    
+    public long getMissCount() {
+        return misses.sum();
+    }
+    
+    private static final class Region {
+        private final long ttlNanos;
+        private final LinkedHashMap<Key, Entry> entries;
+        
+        private Region(int maxEntries, Duration ttl) {
+            this.ttlNanos = ttl.toNanos();
+            this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+        
+        private synchronized CompletableFuture<Response> get(Key key) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.created >= ttlNanos) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.response;
+        }
+        
+        private synchronized CompletableFuture<Response> putIfAbsent(Key key, CompletableFuture<Response> response) {
+            Entry entry = entries.get(key);
+            if (entry != null && System.nanoTime() - entry.created < ttlNanos) {
+                return entry.response;
+            }
+            entries.put(key, new Entry(response, System.nanoTime()));
+            return null;
+        }
+        
+        private synchronized void remove(Key key, CompletableFuture<Response> response) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.response == response) {
+                entries.remove(key);
+            }
+        }
+        
+        private synchronized void clear() {
+            entries.clear();
+        }
+    }
+    
+    private record Entry(CompletableFuture<Response> response, long created) {}
+    
+    private record Key(String subject, String body) {}
+}
@@ -0,0 +1,133 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import io.nats.client.Subscription;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.function.UnaryOperator;
+
+/**
+ * The sending side of a streamed response, handed to {@link StreamingEventProcessor}s.
+ * <p>
+ * At most {@code window} chunks (announced by the caller in the {@value #WINDOW_HEADER} header) are sent before
+ * the caller grants more credit; {@link #next(byte[])} blocks until it does. Credit is received on a private inbox
+ * which is sent as reply subject of every chunk. Not thread-safe, a stream is meant to be fed by one thread.
+ */
+public class ResponseStream {
+    public static final String WINDOW_HEADER = "Nats-Stream-Window";
+    private final Connection connection;
+    private final String replyTo;
+    private final Duration creditTimeout;
+    private final UnaryOperator<byte[]> frameFinisher;
+    private long credits;
+    private String creditInbox;
+    private Subscription creditSubscription;
+    private boolean closed;
+    
+    ResponseStream(Connection connection,
+                   String replyTo,
+                   int window,
+                   Duration creditTimeout,
+                   UnaryOperator<byte[]> frameFinisher) {
+        this.connection = connection;
+        this.replyTo = replyTo;
+        this.credits = window;
+        this.creditTimeout = creditTimeout;
+        this.frameFinisher = frameFinisher;
+    }
+    
+    /**
+     * @return true when the request was sent by {@link TemplateNatsService#publishEventStream}, other requests to
+     * a {@link StreamingEventProcessor} get all chunks in one response
+     */
+    static boolean isRequested(Message request) {
+        return request.hasHeaders() && request.getHeaders().getFirst(WINDOW_HEADER) != null;
+    }
+    
+    static int window(Message request, int defaultWindow) {
+        if (!request.hasHeaders()) {
+            return defaultWindow;
+        }
+        String window = request.getHeaders().getFirst(WINDOW_HEADER);
+        try {
+            return window == null ? defaultWindow : Math.max(1, Integer.parseInt(window));
+        } catch (NumberFormatException e) {
+            return defaultWindow;
+        }
+    }
+    
+    public void next(String chunk) throws InterruptedException {
+        next(chunk == null ? null : chunk.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Sends one chunk, blocking while the caller has not granted credit for it.
+     *
+     * @throws CancellationException when the caller cancelled the stream or stopped granting credit
+     */
+    public void next(byte[] chunk) throws InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("the response stream is already completed.");
+        }
+        if (credits <= 0) {
+            awaitCredit();
+        }
+        send(EventFrameCodec.encodeStreamChunk(true, false, chunk));
+        credits--;
+    }
+    
+    public void complete() {
+        if (closed) {
+            return;
+        }
+        send(EventFrameCodec.encodeStreamChunk(true, true, null));
+        close();
+    }
+    
+    public boolean isClosed() {
+        return closed;
+    }
+    
+    void error(String message) {
+        if (closed) {
+            return;
+        }
+        byte[] data = message == null ? null : message.getBytes(StandardCharsets.UTF_8);
+        send(EventFrameCodec.encodeStreamChunk(false, true, data));
+        close();
+    }
+    
+    private void send(byte[] frame) {
+        if (creditInbox == null) {
+            creditInbox = connection.createInbox();
+            creditSubscription = connection.subscribe(creditInbox);
+        }
+        connection.publish(replyTo, creditInbox, frameFinisher.apply(frame));
+    }
+    
+    private void awaitCredit() throws InterruptedException {
+        while (credits <= 0) {
+            Message message = creditSubscription.nextMessage(creditTimeout);
+            if (message == null) {
+                close();
+                throw new CancellationException("the caller of the nats stream granted no credit in time.");
+            }
+            byte[] data = message.getData();
+            int credit = data.length == 4 ? EventFrameCodec.readInt(data, 0) : 0;
+            if (credit < 0) {
+                close();
+                throw new CancellationException("the caller cancelled the nats stream.");
+            }
+            credits += credit;
+        }
+    }
+    
+    private void close() {
+        closed = true;
+        if (creditSubscription != null && creditSubscription.isActive()) {
+            creditSubscription.unsubscribe();
+        }
+    }
+}
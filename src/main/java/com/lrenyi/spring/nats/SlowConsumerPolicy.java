@@ -0,0 +1,24 @@
+package com.lrenyi.spring.nats;
+
+/**
+ * What {@link ConnectionHolder} does when the pending messages of a {@code @Subscribe} subscription approach its
+ * pending limits, beyond which the client drops incoming messages.
+ */
+public enum SlowConsumerPolicy {
+    /**
+     * Only log a warning, and the messages dropped since the last check.
+     */
+    LOG,
+    /**
+     * Add a queue group member for the method, up to its {@code maxConcurrency}. Not available with the shared
+     * dispatcher strategy, where every member would be delivered by the same thread.
+     */
+    ADD_CONSUMER,
+    /**
+     * Discard the pending messages above the threshold without invoking the method, so the subscription catches
+     * up with the newest messages instead of the client dropping them. Requests discarded this way time out at
+     * the caller. Only available with the per subscription dispatcher strategy, as the backlog is that of the
+     * dispatcher.
+     */
+    SHED
+}
@@ -0,0 +1,23 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+
+/**
+ * An {@link EventProcessor} whose result is sent back as a sequence of chunks, so the result size is bounded
+ * neither by the max payload of a message nor by the heap. Callers receive the chunks with
+ * {@link TemplateNatsService#publishEventStream}.
+ * <p>
+ * The stream is completed automatically when {@link #handle} returns without completing it, an exception
+ * ends the stream with an error. Plain requests are answered by {@link #handler} with all chunks concatenated.
+ */
+public interface StreamingEventProcessor extends EventProcessor {
+    
+    void handle(String jsonData, ResponseStream stream, Connection connection) throws Throwable;
+    
+    @Override
+    default String handler(String jsonData, Connection connection) throws Throwable {
+        CollectedResponseStream stream = new CollectedResponseStream();
+        handle(jsonData, stream, connection);
+        return stream.collected();
+    }
+}
@@ -0,0 +1,225 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publisher of the chunks of a streamed response, see {@link StreamingEventProcessor}.
+ * <p>
+ * The request is sent when the (single) subscriber subscribes. Chunks are delivered as the subscriber requests
+ * them; every time half of the window was consumed the consumed count is granted back to the responder as
+ * credit, so the responder never has more than one window of chunks in flight and the buffered chunks are
+ * bounded by the window as well. Cancelling the subscription tells the responder to stop. The subscriber is
+ * called on {@code executor}, never on the dispatcher thread of the multiplexer, and the idle timeout is paused
+ * while it holds back demand.
+ */
+@Slf4j
+class StreamingResponsePublisher implements Flow.Publisher<Response> {
+    private final ReplyMultiplexer multiplexer;
+    private final String subject;
+    private final byte[] event;
+    private final Duration idleTimeout;
+    private final int window;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    
+    StreamingResponsePublisher(ReplyMultiplexer multiplexer,
+                               String subject,
+                               byte[] event,
+                               Duration idleTimeout,
+                               int window,
+                               Executor executor) {
+        this.multiplexer = multiplexer;
+        this.subject = subject;
+        this.event = event;
+        this.idleTimeout = idleTimeout;
+        this.window = window;
+        this.executor = executor;
+    }
+    
+    @Override
+    public void subscribe(Flow.Subscriber<? super Response> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+                
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("the response stream of nats allows only one subscriber."));
+            return;
+        }
+        StreamSubscription subscription = new StreamSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        Headers headers = new Headers().put(ResponseStream.WINDOW_HEADER, String.valueOf(window));
+        try {
+            multiplexer.stream(subject, headers, event, idleTimeout, subscription);
+        } catch (RuntimeException e) {
+            subscription.onError(e);
+        }
+    }
+    
+    private final class StreamSubscription implements Flow.Subscription, ReplyMultiplexer.StreamListener {
+        private final Flow.Subscriber<? super Response> subscriber;
+        private final Queue<Message> chunks = new ConcurrentLinkedQueue<>();
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final int creditBatch = Math.max(1, window / 2);
+        private volatile boolean terminated;
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+        private volatile String creditSubject;
+        private int consumed;
+        
+        private StreamSubscription(Flow.Subscriber<? super Response> subscriber) {
+            this.subscriber = subscriber;
+        }
+        
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                onError(new IllegalArgumentException("the request of a subscription must be positive, actual: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, add) -> current + add < 0 ? Long.MAX_VALUE : current + add);
+            drain();
+        }
+        
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            chunks.clear();
+            sendCredit(-1);
+        }
+        
+        @Override
+        public boolean onReply(Message message) {
+            if (message.getReplyTo() != null) {
+                creditSubject = message.getReplyTo();
+            }
+            chunks.offer(message);
+            drainLater();
+            return EventFrameCodec.isStreamEnd(message.getData());
+        }
+        
+        @Override
+        public void onError(Throwable cause) {
+            error = cause;
+            drainLater();
+        }
+        
+        @Override
+        public boolean isDone() {
+            return terminated || cancelled;
+        }
+        
+        @Override
+        public boolean isPaused() {
+            return demand.get() == 0 || !chunks.isEmpty() || wip.get() != 0;
+        }
+        
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                drainLoop();
+            }
+        }
+        
+        private void drainLater() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            try {
+                executor.execute(this::drainLoop);
+            } catch (RuntimeException e) {
+                wip.set(0);
+                terminated = true;
+                sendCredit(-1);
+                subscriber.onError(e);
+            }
+        }
+        
+        private void drainLoop() {
+            int missed = 1;
+            do {
+                while (!isDone()) {
+                    Message message = chunks.peek();
+                    if (message == null) {
+                        Throwable cause = error;
+                        if (cause != null) {
+                            terminated = true;
+                            subscriber.onError(cause);
+                        }
+                        break;
+                    }
+                    if (demand.get() == 0) {
+                        break;
+                    }
+                    chunks.poll();
+                    deliver(message);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+        
+        private void deliver(Message message) {
+            byte[] data = message.getData();
+            Response response;
+            try {
+                response = EventFrameCodec.decodeResponse(data);
+            } catch (RuntimeException e) {
+                terminated = true;
+                sendCredit(-1);
+                subscriber.onError(e);
+                return;
+            }
+            boolean end = EventFrameCodec.isStreamEnd(data);
+            if (!response.isSuccess()) {
+                terminated = true;
+                subscriber.onError(new RuntimeException(response.getData()));
+                return;
+            }
+            if (!end || data.length > 5) {
+                demand.decrementAndGet();
+                subscriber.onNext(response);
+            }
+            if (end) {
+                terminated = true;
+                subscriber.onComplete();
+                return;
+            }
+            if (++consumed >= creditBatch) {
+                sendCredit(consumed);
+                consumed = 0;
+            }
+        }
+        
+        private void sendCredit(int credit) {
+            String target = creditSubject;
+            if (target == null) {
+                return;
+            }
+            byte[] data = new byte[4];
+            EventFrameCodec.writeInt(data, 0, credit);
+            try {
+                multiplexer.getConnection().publish(target, data);
+            } catch (RuntimeException e) {
+                log.debug("send credit to the nats stream responder failed.", e);
+            }
+        }
+    }
+}
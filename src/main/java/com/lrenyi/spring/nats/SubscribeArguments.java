@@ -0,0 +1,93 @@
+package com.lrenyi.spring.nats;
+
+import com.lrenyi.spring.nats.annotations.Header;
+import com.lrenyi.spring.nats.annotations.Subject;
+import com.lrenyi.spring.nats.annotations.Subscribe;
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidParameterException;
+
+/**
+ * Resolves the parameters of {@code @Subscribe} methods from a received message.
+ * <p>
+ * The resolver of every parameter is chosen once when the method is registered, by its type and annotations:
+ * {@code Message}, {@code byte[]}, a read-only {@code ByteBuffer} over the data, {@code Headers}, {@code String}
+ * for the data as UTF-8, {@link Subject} and {@link Header} strings, and any other type, generic ones included,
+ * decoded from the data with the codec of the subscription. An empty message decodes to null, so primitive
+ * payload parameters are rejected.
+ */
+final class SubscribeArguments {
+    
+    private SubscribeArguments() {
+    }
+    
+    static Resolver[] resolvers(Method method, Subscribe sub, String defaultCodec) {
+        Parameter[] parameters = method.getParameters();
+        Resolver[] resolvers = new Resolver[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            resolvers[i] = resolver(method, sub, parameters[i], defaultCodec);
+        }
+        return resolvers;
+    }
+    
+    private static Resolver resolver(Method method, Subscribe sub, Parameter parameter, String defaultCodec) {
+        Class<?> type = parameter.getType();
+        Header header = parameter.getAnnotation(Header.class);
+        if (header != null || parameter.isAnnotationPresent(Subject.class)) {
+            if (type != String.class) {
+                throw new InvalidParameterException(String.format("the @Subject or @Header parameter %s of method %s"
+                                                                          + " must be a String.",
+                                                                  parameter.getName(),
+                                                                  method.getName()
+                ));
+            }
+            if (header == null) {
+                return Message::getSubject;
+            }
+            String name = header.value();
+            return message -> message.hasHeaders() ? message.getHeaders().getFirst(name) : null;
+        }
+        if (type == Message.class) {
+            return message -> message;
+        }
+        if (type == byte[].class) {
+            return Message::getData;
+        }
+        if (type == ByteBuffer.class) {
+            return message -> ByteBuffer.wrap(message.getData()).asReadOnlyBuffer();
+        }
+        if (type == Headers.class) {
+            return Message::getHeaders;
+        }
+        if (type == String.class) {
+            return message -> new String(message.getData(), StandardCharsets.UTF_8);
+        }
+        if (type.isPrimitive()) {
+            throw new InvalidParameterException(String.format("the parameter %s of method %s is a primitive, which "
+                                                                      + "an empty message cannot be decoded to, "
+                                                                      + "use its wrapper type.",
+                                                              parameter.getName(),
+                                                              method.getName()
+            ));
+        }
+        String codecName = sub.codec().isEmpty() ? defaultCodec : sub.codec();
+        NatsCodec codec = NatsCodecs.get(codecName);
+        Type genericType = parameter.getParameterizedType();
+        return message -> {
+            byte[] data = message.getData();
+            return data.length == 0 ? null : codec.decode(data, 0, data.length, genericType);
+        };
+    }
+    
+    @FunctionalInterface
+    interface Resolver {
+        Object resolve(Message message) throws Exception;
+    }
+}
@@ -1,6 +1,8 @@
 package com.lrenyi.spring.nats;
 
 import com.lrenyi.spring.nats.annotations.Subscribe;
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import io.nats.client.MessageHandler;
 import java.lang.reflect.Method;
 import java.util.Objects;
 import lombok.Getter;
@@ -12,19 +14,46 @@ public class SubscribeInfo {
     private Object bean;
     private Method method;
     private Subscribe subject;
+    /**
+     * Delivers a message to the method of the bean, generated once when the method is registered.
+     */
+    private MessageHandler invoker;
+    /**
+     * Index of the queue group member with a concurrency above one.
+     */
+    private int member;
     
     public SubscribeInfo() {
     }
     
     public SubscribeInfo(Object bean, Method method, Subscribe subject) {
+        this(bean, method, subject, NatsCodecs.JSON);
+    }
+    
+    /**
+     * @param defaultCodec the codec decoding typed payload parameters when the subscription names none
+     */
+    public SubscribeInfo(Object bean, Method method, Subscribe subject, String defaultCodec) {
         this.bean = bean;
         this.method = method;
         this.subject = subject;
+        SubscribeArguments.Resolver[] resolvers = SubscribeArguments.resolvers(method, subject, defaultCodec);
+        this.invoker = SubscribeInvoker.create(bean, method, resolvers);
+    }
+    
+    SubscribeInfo withMember(int member) {
+        SubscribeInfo info = new SubscribeInfo();
+        info.bean = bean;
+        info.method = method;
+        info.subject = subject;
+        info.invoker = invoker;
+        info.member = member;
+        return info;
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(bean, method, subject);
+        return Objects.hash(bean, method, subject.value(), subject.queue(), member);
     }
     
     @Override
@@ -35,7 +64,8 @@ public class SubscribeInfo {
         return Objects.equals(bean, that.bean)
                 && Objects.equals(method, that.method)
                 && Objects.equals(subject.value(),that.subject.value())
-                && Objects.equals(subject.queue(),that.subject.queue());
+                && Objects.equals(subject.queue(),that.subject.queue())
+                && member == that.member;
         //@formatter:on
     }
 }
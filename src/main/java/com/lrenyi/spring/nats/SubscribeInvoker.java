@@ -0,0 +1,154 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Creates the {@link MessageHandler} delivering messages to a {@code @Subscribe} method.
+ * <p>
+ * The handler is generated once at registration with {@link LambdaMetafactory} and bound to the bean, so a
+ * delivery is a plain interface call the JIT can inline, without the argument array, access check and exception
+ * wrapping of {@link Method#invoke}. The arguments are produced by the resolvers chosen at registration, see
+ * {@link SubscribeArguments}. Methods with more than three parameters are called through a spreading method
+ * handle, methods the metafactory cannot reach fall back to reflection.
+ */
+@Slf4j
+final class SubscribeInvoker {
+    
+    private SubscribeInvoker() {
+    }
+    
+    static MessageHandler create(Object bean, Method method, SubscribeArguments.Resolver[] resolvers) {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(method.getDeclaringClass(),
+                                                                        MethodHandles.lookup()
+            );
+            MethodHandle target = lookup.unreflect(method);
+            if (resolvers.length == 1 && method.getParameterTypes()[0] == Message.class) {
+                return generate(lookup, target, bean, MessageHandler.class, "onMessage");
+            }
+            return handler(switch (resolvers.length) {
+                case 0 -> {
+                    Runnable invoker = generate(lookup, target, bean, Runnable.class, "run");
+                    yield message -> invoker.run();
+                }
+                case 1 -> {
+                    Invoker1 invoker = generate(lookup, target, bean, Invoker1.class, "invoke");
+                    SubscribeArguments.Resolver first = resolvers[0];
+                    yield message -> invoker.invoke(first.resolve(message));
+                }
+                case 2 -> {
+                    Invoker2 invoker = generate(lookup, target, bean, Invoker2.class, "invoke");
+                    SubscribeArguments.Resolver first = resolvers[0];
+                    SubscribeArguments.Resolver second = resolvers[1];
+                    yield message -> invoker.invoke(first.resolve(message), second.resolve(message));
+                }
+                case 3 -> {
+                    Invoker3 invoker = generate(lookup, target, bean, Invoker3.class, "invoke");
+                    SubscribeArguments.Resolver first = resolvers[0];
+                    SubscribeArguments.Resolver second = resolvers[1];
+                    SubscribeArguments.Resolver third = resolvers[2];
+                    yield message -> invoker.invoke(first.resolve(message),
+                                                    second.resolve(message),
+                                                    third.resolve(message)
+                    );
+                }
+                default -> {
+                    MethodHandle spreader = target.bindTo(bean)
+                                                  .asSpreader(Object[].class, resolvers.length)
+                                                  .asType(MethodType.methodType(void.class, Object[].class));
+                    yield message -> {
+                        try {
+                            spreader.invokeExact(resolve(resolvers, message));
+                        } catch (Exception | Error e) {
+                            throw e;
+                        } catch (Throwable e) {
+                            throw new IllegalStateException(e);
+                        }
+                    };
+                }
+            });
+        } catch (Throwable e) {
+            log.debug("generate the invoker of method[{}] failed, use reflection.", method.getName(), e);
+            return message -> {
+                try {
+                    method.invoke(bean, resolve(resolvers, message));
+                } catch (IllegalAccessException | InvocationTargetException ex) {
+                    log.error("invoke method[{}] error.", method.getName(), ex);
+                }
+            };
+        }
+    }
+    
+    private static MessageHandler handler(Delivery delivery) {
+        return message -> {
+            try {
+                delivery.deliver(message);
+            } catch (RuntimeException | InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+    
+    private static <T> T generate(MethodHandles.Lookup lookup,
+                                  MethodHandle target,
+                                  Object bean,
+                                  Class<T> invokerType,
+                                  String name) throws Throwable {
+        Method single = invokerType.getMethods()[0];
+        MethodType invokerMethod = MethodType.methodType(single.getReturnType(), single.getParameterTypes());
+        MethodType instantiated = target.type().dropParameterTypes(0, 1).changeReturnType(void.class);
+        CallSite site = LambdaMetafactory.metafactory(lookup,
+                                                      name,
+                                                      MethodType.methodType(invokerType, bean.getClass()),
+                                                      invokerMethod,
+                                                      target,
+                                                      instantiated
+        );
+        return invokerType.cast(site.getTarget().invoke(bean));
+    }
+    
+    private static Object[] resolve(SubscribeArguments.Resolver[] resolvers, Message message) {
+        Object[] args = new Object[resolvers.length];
+        for (int i = 0; i < resolvers.length; i++) {
+            try {
+                args[i] = resolvers[i].resolve(message);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("resolve the argument " + i + " from the message failed.", e);
+            }
+        }
+        return args;
+    }
+    
+    @FunctionalInterface
+    private interface Delivery {
+        void deliver(Message message) throws Exception;
+    }
+    
+    @FunctionalInterface
+    interface Invoker1 {
+        void invoke(Object first) throws Exception;
+    }
+    
+    @FunctionalInterface
+    interface Invoker2 {
+        void invoke(Object first, Object second) throws Exception;
+    }
+    
+    @FunctionalInterface
+    interface Invoker3 {
+        void invoke(Object first, Object second, Object third) throws Exception;
+    }
+}
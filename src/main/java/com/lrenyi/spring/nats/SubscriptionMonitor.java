@@ -0,0 +1,132 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Consumer;
+import io.nats.client.MessageHandler;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Watches the pending messages of the {@code @Subscribe} subscriptions, reports the messages the client dropped
+ * and applies the {@link SlowConsumerPolicy} to subscriptions whose backlog reaches {@code threshold} of their
+ * pending limits.
+ */
+@Slf4j
+class SubscriptionMonitor {
+    private final Map<SubscribeInfo, Watch> watches = new ConcurrentHashMap<>();
+    private final Set<SubscribeInfo> fullyGrown = new HashSet<>();
+    private final SlowConsumerPolicy policy;
+    private final double threshold;
+    private final Predicate<SubscribeInfo> addConsumer;
+    
+    SubscriptionMonitor(SlowConsumerPolicy policy, double threshold, Predicate<SubscribeInfo> addConsumer) {
+        this.policy = policy;
+        this.threshold = threshold;
+        this.addConsumer = addConsumer;
+    }
+    
+    /**
+     * Starts watching the consumer a queue group member is delivered by, replacing the one it had before a
+     * reconnect.
+     *
+     * @return the handler to subscribe, which sheds messages with the shed policy
+     */
+    MessageHandler watch(SubscribeInfo subscribeInfo, Consumer consumer, MessageHandler handler) {
+        Watch watch = new Watch(subscribeInfo, consumer);
+        watches.put(subscribeInfo, watch);
+        if (policy != SlowConsumerPolicy.SHED) {
+            return handler;
+        }
+        return message -> {
+            if (nearLimit(consumer)) {
+                watch.shed.increment();
+                return;
+            }
+            handler.onMessage(message);
+        };
+    }
+    
+    void check() {
+        Set<SubscribeInfo> grown = new HashSet<>();
+        for (Watch watch : watches.values()) {
+            SubscribeInfo info = watch.subscribeInfo;
+            String subject = info.getSubject().value();
+            long dropped = watch.consumer.getDroppedCount();
+            if (dropped > watch.reportedDropped) {
+                log.warn("subscription {} of method[{}] dropped {} messages, the pending limits were reached.",
+                         subject,
+                         info.getMethod().getName(),
+                         dropped - watch.reportedDropped
+                );
+                watch.reportedDropped = dropped;
+            }
+            boolean near = nearLimit(watch.consumer);
+            if (near && !watch.near) {
+                log.warn("subscription {} of method[{}] has {} pending messages of limit {}.",
+                         subject,
+                         info.getMethod().getName(),
+                         watch.consumer.getPendingMessageCount(),
+                         watch.consumer.getPendingMessageLimit()
+                );
+            }
+            watch.near = near;
+            SubscribeInfo first = info.withMember(0);
+            if (near && policy == SlowConsumerPolicy.ADD_CONSUMER && grown.add(first)) {
+                if (!addConsumer.test(info) && fullyGrown.add(first)) {
+                    log.warn("subscription {} of method[{}] is slow but has all {} members it may have.",
+                             subject,
+                             info.getMethod().getName(),
+                             ConnectionHolder.maxConsumers(info.getSubject())
+                    );
+                }
+            }
+        }
+    }
+    
+    List<SubscriptionStats> getStats() {
+        List<SubscriptionStats> stats = new ArrayList<>(watches.size());
+        for (Watch watch : watches.values()) {
+            SubscribeInfo info = watch.subscribeInfo;
+            Consumer consumer = watch.consumer;
+            stats.add(new SubscriptionStats(info.getSubject().value(),
+                                            info.getSubject().queue(),
+                                            info.getMember(),
+                                            consumer.getPendingMessageCount(),
+                                            consumer.getPendingByteCount(),
+                                            consumer.getPendingMessageLimit(),
+                                            consumer.getPendingByteLimit(),
+                                            consumer.getDroppedCount(),
+                                            watch.shed.sum()
+            ));
+        }
+        return stats;
+    }
+    
+    private boolean nearLimit(Consumer consumer) {
+        long messageLimit = consumer.getPendingMessageLimit();
+        if (messageLimit > 0 && consumer.getPendingMessageCount() >= messageLimit * threshold) {
+            return true;
+        }
+        long byteLimit = consumer.getPendingByteLimit();
+        return byteLimit > 0 && consumer.getPendingByteCount() >= byteLimit * threshold;
+    }
+    
+    private static final class Watch {
+        private final SubscribeInfo subscribeInfo;
+        private final Consumer consumer;
+        private final LongAdder shed = new LongAdder();
+        private long reportedDropped;
+        private boolean near;
+        
+        private Watch(SubscribeInfo subscribeInfo, Consumer consumer) {
+            this.subscribeInfo = subscribeInfo;
+            this.consumer = consumer;
+        }
+    }
+}
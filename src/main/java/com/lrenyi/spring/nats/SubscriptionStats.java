@@ -0,0 +1,19 @@
+package com.lrenyi.spring.nats;
+
+/**
+ * The backlog of one queue group member of a {@code @Subscribe} method. Pending counts and limits are those of the
+ * dispatcher delivering the subscription, which other subscriptions share with the shared or pool dispatcher
+ * strategy.
+ *
+ * @param droppedCount messages dropped by the client because the pending limits were reached
+ * @param shedCount    messages discarded by the shed slow consumer policy
+ */
+public record SubscriptionStats(String subject,
+                                String queue,
+                                int member,
+                                long pendingMessageCount,
+                                long pendingByteCount,
+                                long pendingMessageLimit,
+                                long pendingByteLimit,
+                                long droppedCount,
+                                long shedCount) {}
@@ -1,26 +1,206 @@
 package com.lrenyi.spring.nats;
 
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import com.lrenyi.spring.nats.compress.PayloadCompressor;
+import com.lrenyi.spring.nats.compress.PayloadCompressors;
 import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
 import io.nats.client.Message;
-import io.nats.client.Subscription;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.Unpooled;
+import io.nats.client.impl.Headers;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import lombok.NonNull;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 @Slf4j
 @Component
-public class TemplateNatsService {
+public class TemplateNatsService implements DisposableBean {
     
     private final ConnectionHolder connectionHolder;
+    private final EventBatcher eventBatcher;
+    private final ExecutorService eventExecutor;
+    /**
+     * Bounds the events processed on virtual threads at once, null for no bound.
+     */
+    private final Semaphore eventPermits;
+    private final ExecutorService streamExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final EventLanes eventLanes;
+    private final Map<String, EventBulkhead> bulkheads = new HashMap<>();
+    private final Map<BatchEventProcessor, EventBatchCollector> batchCollectors = new ConcurrentHashMap<>();
+    private final IdempotencyCache idempotencyCache;
+    private final ResponseCache responseCache;
+    private final List<ScheduledFuture<?>> tasks = new ArrayList<>();
+    private Dispatcher invalidationDispatcher;
     
     public TemplateNatsService(ConnectionHolder connectionHolder) {
         this.connectionHolder = connectionHolder;
+        NatsProperties properties = connectionHolder.getProperties();
+        Duration linger = properties.getBatchLinger();
+        this.eventBatcher = new EventBatcher(properties.getBatchMaxBytes(), linger, this::publishNoReply);
+        long millis = Math.max(1, linger.toMillis());
+        schedule(this::flushBatches, millis, millis);
+        EventExecution execution = properties.getEventExecution();
+        if (execution == EventExecution.VIRTUAL) {
+            this.eventExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            int concurrency = properties.getVirtualMaxConcurrency();
+            this.eventPermits = concurrency > 0 ? new Semaphore(concurrency) : null;
+        } else {
+            this.eventExecutor = null;
+            this.eventPermits = null;
+        }
+        if (execution == EventExecution.ORDERED && !properties.getBulkheads().isEmpty()) {
+            throw new IllegalArgumentException(String.format(
+                    "the events %s have a bulkhead, which does not keep the order of event-execution=ordered.",
+                    properties.getBulkheads().keySet()
+            ));
+        }
+        if (execution == EventExecution.ORDERED) {
+            this.eventLanes = new EventLanes(properties.getOrderedLanes(), properties.getOrderedLaneCapacity());
+        } else {
+            this.eventLanes = null;
+        }
+        properties.getBulkheads().forEach((eventType, bulkhead) -> bulkheads.put(eventType, new EventBulkhead(
+                eventType,
+                bulkhead.getThreads(),
+                bulkhead.getQueueCapacity(),
+                bulkhead.getPolicy()
+        )));
+        Duration window = properties.getIdempotencyWindow();
+        if (window != null && !window.isZero()) {
+            this.idempotencyCache = new IdempotencyCache(properties.getIdempotencyMaxEntries(), window);
+            long purge = Math.max(1, window.toMillis());
+            schedule(idempotencyCache::purgeExpired, purge, purge);
+        } else {
+            this.idempotencyCache = null;
+        }
+        this.responseCache = new ResponseCache(properties.getResponseCaches());
+        if (!responseCache.isEmpty() && StringUtils.hasLength(properties.getResponseCacheInvalidationSubject())) {
+            schedule(this::subscribeInvalidation, 0, TimeUnit.SECONDS.toMillis(8));
+        }
+    }
+    
+    /**
+     * Subscribes to the invalidation broadcasts, again whenever the connection of the subscription was closed.
+     */
+    private synchronized void subscribeInvalidation() {
+        if (invalidationDispatcher != null && invalidationDispatcher.isActive()) {
+            return;
+        }
+        Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
+        if (connectionOptional.isEmpty() || connectionOptional.get().getStatus() == Connection.Status.CLOSED) {
+            return;
+        }
+        try {
+            invalidationDispatcher = connectionOptional.get().createDispatcher(message -> {
+                byte[] data = message.getData();
+                if (data == null || data.length == 0) {
+                    responseCache.invalidateAll();
+                } else {
+                    responseCache.invalidate(new String(data, StandardCharsets.UTF_8));
+                }
+            });
+            invalidationDispatcher.subscribe(connectionHolder.getProperties().getResponseCacheInvalidationSubject());
+        } catch (RuntimeException e) {
+            log.warn("subscribe to the response cache invalidation of nats failed.", e);
+        }
+    }
+    
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+    
+    /**
+     * Drops the cached responses of {@code eventName}, or all of them when it is null, here and, when
+     * {@code app.template.nats.response-cache-invalidation-subject} is set, in every other service listening on it.
+     */
+    public void invalidateResponseCache(String eventName) {
+        if (eventName == null) {
+            responseCache.invalidateAll();
+        } else {
+            responseCache.invalidate(eventName);
+        }
+        String subject = connectionHolder.getProperties().getResponseCacheInvalidationSubject();
+        if (!StringUtils.hasLength(subject)) {
+            return;
+        }
+        Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
+        if (connectionOptional.isEmpty()) {
+            throw new RuntimeException("the connection of nats is null when invalidate the response cache.");
+        }
+        byte[] data = eventName == null ? new byte[0] : eventName.getBytes(StandardCharsets.UTF_8);
+        connectionOptional.get().publish(subject, data);
+    }
+    
+    /**
+     * @return the memory of responses to retried requests, null unless {@code idempotency-window} is set
+     */
+    public IdempotencyCache getIdempotencyCache() {
+        return idempotencyCache;
+    }
+    
+    /**
+     * @return the bulkheads by event type, to monitor their queue depth and rejections
+     */
+    public Map<String, EventBulkhead> getBulkheads() {
+        return Collections.unmodifiableMap(bulkheads);
+    }
+    
+    /**
+     * Runs a housekeeping task on the scheduler of the connection holder until the service is destroyed.
+     */
+    private void schedule(Runnable task, long initialDelayMillis, long periodMillis) {
+        ScheduledExecutorService scheduler = connectionHolder.getScheduler();
+        tasks.add(scheduler.scheduleAtFixedRate(task, initialDelayMillis, periodMillis, TimeUnit.MILLISECONDS));
+    }
+    
+    private void flushBatches() {
+        try {
+            eventBatcher.flushExpired();
+        } catch (RuntimeException e) {
+            log.warn("publish the batched events of nats failed, they are dropped.", e);
+        }
+    }
+    
+    @Override
+    public void destroy() {
+        tasks.forEach(task -> task.cancel(false));
+        eventBatcher.flushAll();
+        if (eventExecutor != null) {
+            eventExecutor.close();
+        }
+        streamExecutor.shutdown();
+        if (eventLanes != null) {
+            eventLanes.shutdown();
+        }
+        bulkheads.values().forEach(EventBulkhead::shutdown);
+        batchCollectors.values().forEach(EventBatchCollector::shutdown);
     }
     
     public Response publishEvent(@NonNull String subject, @NonNull String eventName, String jsonBody) {
@@ -28,93 +208,674 @@ public class TemplateNatsService {
     }
     
     public Response publishEvent(@NonNull String subject, @NonNull String eventName, String jsonBody, int timeout) {
-        ByteBuf eventBuf = Unpooled.buffer();
-        byte[] codeBytes = eventName.getBytes(StandardCharsets.UTF_8);
-        eventBuf.writeByte(codeBytes.length);
-        eventBuf.writeBytes(codeBytes);
-        if (StringUtils.hasLength(jsonBody)) {
-            byte[] jsonBodyBytes = jsonBody.getBytes(StandardCharsets.UTF_8);
-            eventBuf.writeInt(jsonBodyBytes.length);
-            eventBuf.writeBytes(jsonBodyBytes);
-        } else {
-            eventBuf.writeInt(0);
+        return publishEvent(subject, eventName, jsonBody, Duration.ofSeconds(timeout));
+    }
+    
+    public Response publishEvent(@NonNull String subject,
+                                 @NonNull String eventName,
+                                 String jsonBody,
+                                 @NonNull Duration timeout) {
+        CompletableFuture<Response> future = publishEventAsync(subject, eventName, jsonBody, timeout);
+        return await(future, timeout, "event " + eventName);
+    }
+    
+    public CompletableFuture<Response> publishEventAsync(@NonNull String subject,
+                                                         @NonNull String eventName,
+                                                         String jsonBody) {
+        return publishEventAsync(subject, eventName, jsonBody, Duration.ofSeconds(30));
+    }
+    
+    /**
+     * Publishes the event without blocking the calling thread.
+     * <p>
+     * The returned future is completed on the NATS dispatcher thread of the reply inbox, so dependent stages
+     * should not block; use the {@code *Async} composition methods with an executor for blocking work. When no
+     * response arrives within {@code timeout} the future completes exceptionally with a
+     * {@link TimeoutException}. When {@code app.template.nats.max-in-flight} requests are already waiting for
+     * their response, the request is queued without blocking the caller and the future fails with a
+     * {@link RejectedExecutionException} once no slot became free within
+     * {@code app.template.nats.in-flight-max-wait}. Event types listed in
+     * {@code app.template.nats.response-caches} are answered from the cache while their response is fresh.
+     */
+    public CompletableFuture<Response> publishEventAsync(@NonNull String subject,
+                                                         @NonNull String eventName,
+                                                         String jsonBody,
+                                                         @NonNull Duration timeout) {
+        if (responseCache.isEmpty()) {
+            return requestAsync(subject, EventFrameCodec.encodeEvent(eventName, jsonBody), timeout);
         }
+        return responseCache.get(subject, eventName, jsonBody, () -> {
+            return requestAsync(subject, EventFrameCodec.encodeEvent(eventName, jsonBody), timeout);
+        });
+    }
+    
+    /**
+     * Publishes a notification event without waiting for, or even asking for, a response.
+     */
+    public void publishEventNoReply(@NonNull String subject, @NonNull String eventName, String jsonBody) {
+        publishNoReply(subject, EventFrameCodec.encodeEvent(eventName, jsonBody));
+    }
+    
+    /**
+     * Publishes a request which is safe to retry: responders with {@code app.template.nats.idempotency-window}
+     * answer every request with the same {@code requestId} within the window with the response of the first one
+     * instead of processing it again.
+     */
+    public Response publishIdempotentEvent(@NonNull String subject,
+                                           @NonNull String eventName,
+                                           @NonNull String requestId,
+                                           String jsonBody,
+                                           @NonNull Duration timeout) {
+        CompletableFuture<Response> future = publishIdempotentEventAsync(subject,
+                                                                         eventName,
+                                                                         requestId,
+                                                                         jsonBody,
+                                                                         timeout
+        );
+        return await(future, timeout, "event " + eventName);
+    }
+    
+    public CompletableFuture<Response> publishIdempotentEventAsync(@NonNull String subject,
+                                                                   @NonNull String eventName,
+                                                                   @NonNull String requestId,
+                                                                   String jsonBody,
+                                                                   @NonNull Duration timeout) {
+        Headers headers = new Headers().put(connectionHolder.getProperties().getRequestIdHeader(), requestId);
+        return requestAsync(subject, headers, EventFrameCodec.encodeEvent(eventName, jsonBody), timeout);
+    }
+    
+    /**
+     * Publishes a notification event with an ordering key, receivers with {@code event-execution=ordered} handle
+     * the events of one key in the order they were published.
+     */
+    public void publishOrderedEvent(@NonNull String subject,
+                                    @NonNull String eventName,
+                                    @NonNull String key,
+                                    String jsonBody) {
+        publishNoReply(subject, keyHeaders(key), EventFrameCodec.encodeEvent(eventName, jsonBody));
+    }
+    
+    public CompletableFuture<Response> publishOrderedEventAsync(@NonNull String subject,
+                                                                @NonNull String eventName,
+                                                                @NonNull String key,
+                                                                String jsonBody,
+                                                                @NonNull Duration timeout) {
+        return requestAsync(subject, keyHeaders(key), EventFrameCodec.encodeEvent(eventName, jsonBody), timeout);
+    }
+    
+    private Headers keyHeaders(String key) {
+        return new Headers().put(connectionHolder.getProperties().getEventKeyHeader(), key);
+    }
+    
+    /**
+     * Publishes a notification event packed together with other batched events to the same subject into a single
+     * message, which is sent once it reaches {@code app.template.nats.batch-max-bytes} or after
+     * {@code app.template.nats.batch-linger}. Events are dispatched in the order they were batched, but they may
+     * still be buffered when this method returns.
+     */
+    public void publishEventBatched(@NonNull String subject, @NonNull String eventName, String jsonBody) {
+        eventBatcher.add(subject, EventFrameCodec.encodeEvent(eventName, jsonBody));
+    }
+    
+    public void publishBinaryEventBatched(@NonNull String subject, @NonNull String eventName, byte[] body) {
+        eventBatcher.add(subject, EventFrameCodec.encodeEvent(eventName, body));
+    }
+    
+    /**
+     * Publishes an event whose body is sent as is, without charset encoding. Use {@link Response#toBytes()} or
+     * {@link Response#asReadOnlyBuffer()} to read binary response data.
+     */
+    public Response publishBinaryEvent(@NonNull String subject,
+                                       @NonNull String eventName,
+                                       byte[] body,
+                                       @NonNull Duration timeout) {
+        CompletableFuture<Response> future = publishBinaryEventAsync(subject, eventName, body, timeout);
+        return await(future, timeout, "event " + eventName);
+    }
+    
+    /**
+     * Like {@link #publishBinaryEvent(String, String, byte[], Duration)}, sending the remaining bytes of
+     * {@code body} without copying them into an array first.
+     */
+    public Response publishBinaryEventBuffer(@NonNull String subject,
+                                             @NonNull String eventName,
+                                             ByteBuffer body,
+                                             @NonNull Duration timeout) {
+        CompletableFuture<Response> future = publishBinaryEventBufferAsync(subject, eventName, body, timeout);
+        return await(future, timeout, "event " + eventName);
+    }
+    
+    public CompletableFuture<Response> publishBinaryEventAsync(@NonNull String subject,
+                                                               @NonNull String eventName,
+                                                               byte[] body,
+                                                               @NonNull Duration timeout) {
+        return requestAsync(subject, EventFrameCodec.encodeEvent(eventName, body), timeout);
+    }
+    
+    public CompletableFuture<Response> publishBinaryEventBufferAsync(@NonNull String subject,
+                                                                     @NonNull String eventName,
+                                                                     ByteBuffer body,
+                                                                     @NonNull Duration timeout) {
+        return requestAsync(subject, EventFrameCodec.encodeEvent(eventName, body), timeout);
+    }
+    
+    public void publishBinaryEventNoReply(@NonNull String subject, @NonNull String eventName, byte[] body) {
+        publishNoReply(subject, EventFrameCodec.encodeEvent(eventName, body));
+    }
+    
+    public void publishBinaryEventBufferNoReply(@NonNull String subject, @NonNull String eventName, ByteBuffer body) {
+        publishNoReply(subject, EventFrameCodec.encodeEvent(eventName, body));
+    }
+    
+    public <T, R> R publishEvent(@NonNull String subject,
+                                 @NonNull String eventName,
+                                 T body,
+                                 @NonNull Class<R> responseType) {
+        return publishEvent(subject, eventName, body, responseType, Duration.ofSeconds(30));
+    }
+    
+    public <T, R> R publishEvent(@NonNull String subject,
+                                 @NonNull String eventName,
+                                 T body,
+                                 @NonNull Class<R> responseType,
+                                 @NonNull Duration timeout) {
+        CompletableFuture<R> future = publishEventAsync(subject, eventName, body, responseType, timeout);
+        return await(future, timeout, "event " + eventName);
+    }
+    
+    /**
+     * Publishes a typed event, the body is encoded and the response decoded with the codec configured for
+     * {@code eventName}. The future completes exceptionally when the processor reports a failure.
+     */
+    public <T, R> CompletableFuture<R> publishEventAsync(@NonNull String subject,
+                                                         @NonNull String eventName,
+                                                         T body,
+                                                         @NonNull Class<R> responseType,
+                                                         @NonNull Duration timeout) {
+        NatsCodec codec = connectionHolder.getProperties().codecFor(eventName);
+        byte[] event;
+        try {
+            event = EventFrameCodec.encodeEvent(eventName, codec, body);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(new RuntimeException("encode the body of event " + eventName
+                                                                               + " failed.", e));
+        }
+        return requestAsync(subject, event, timeout).thenApply(response -> {
+            if (!response.isSuccess()) {
+                throw new RuntimeException(response.getData());
+            }
+            try {
+                return response.getData(codec, responseType);
+            } catch (IOException e) {
+                throw new RuntimeException("decode the response of event " + eventName + " failed.", e);
+            }
+        });
+    }
+    
+    /**
+     * Publishes the event once and collects the responses of up to {@code maxResponses} responders, returning
+     * whatever arrived within {@code timeout}.
+     */
+    public List<Response> publishEventGather(@NonNull String subject,
+                                             @NonNull String eventName,
+                                             String jsonBody,
+                                             int maxResponses,
+                                             @NonNull Duration timeout) {
+        CompletableFuture<List<Response>> future = publishEventGatherAsync(subject,
+                                                                           eventName,
+                                                                           jsonBody,
+                                                                           maxResponses,
+                                                                           0,
+                                                                           timeout
+        );
+        // the multiplexer completes the future at the deadline, the grace keeps the responses collected until then
+        return await(future, timeout.plusSeconds(1), "event " + eventName);
+    }
+    
+    /**
+     * Scatter-gather request: the event is published once to every subscriber of {@code subject} and their
+     * responses are collected from the shared inbox. The future completes as soon as {@code maxResponses}
+     * responses arrived, or at the deadline with the responses received so far when these are at least
+     * {@code minResponses} (the quorum), otherwise it fails with a {@link TimeoutException}.
+     */
+    public CompletableFuture<List<Response>> publishEventGatherAsync(@NonNull String subject,
+                                                                     @NonNull String eventName,
+                                                                     String jsonBody,
+                                                                     int maxResponses,
+                                                                     int minResponses,
+                                                                     @NonNull Duration timeout) {
+        if (maxResponses <= 0 || minResponses < 0 || minResponses > maxResponses) {
+            throw new IllegalArgumentException("the responses to gather must satisfy 0 <= min <= max and max > 0.");
+        }
+        byte[] event = compressEvent(EventFrameCodec.encodeEvent(eventName, jsonBody));
+        Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
+        if (connectionOptional.isEmpty()) {
+            return CompletableFuture.failedFuture(new RuntimeException(
+                    "the connection of nats is null when publish event."));
+        }
+        ReplyMultiplexer multiplexer = connectionHolder.getReplyMultiplexer(connectionOptional.get());
+        return limited(subject, () -> multiplexer.gather(subject, event, maxResponses, minResponses, timeout)
+                .thenApply(messages -> {
+                    List<Response> responses = new ArrayList<>(messages.size());
+                    messages.forEach(message -> responses.add(decodeResponse(message)));
+                    return responses;
+                }));
+    }
+    
+    /**
+     * Requests a streamed response from a {@link StreamingEventProcessor}.
+     * <p>
+     * The request is published when the returned publisher is subscribed, the chunks are then delivered as the
+     * subscriber requests them, with at most {@code app.template.nats.stream-window} chunks in flight. The stream
+     * fails with a {@link TimeoutException} when no chunk arrives within {@code idleTimeout} while the subscriber
+     * has demand.
+     */
+    public Flow.Publisher<Response> publishEventStream(@NonNull String subject,
+                                                       @NonNull String eventName,
+                                                       String jsonBody,
+                                                       @NonNull Duration idleTimeout) {
+        byte[] event = compressEvent(EventFrameCodec.encodeEvent(eventName, jsonBody));
+        Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
+        if (connectionOptional.isEmpty()) {
+            throw new RuntimeException("the connection of nats is null when publish event.");
+        }
+        ReplyMultiplexer multiplexer = connectionHolder.getReplyMultiplexer(connectionOptional.get());
+        int window = connectionHolder.getProperties().getStreamWindow();
+        return new StreamingResponsePublisher(multiplexer, subject, event, idleTimeout, window, streamExecutor);
+    }
+    
+    public List<Response> publishEvents(@NonNull String subject, @NonNull List<Event> events) {
+        return publishEvents(subject, events, Duration.ofSeconds(30));
+    }
+    
+    public List<Response> publishEvents(@NonNull String subject,
+                                        @NonNull List<Event> events,
+                                        @NonNull Duration timeout) {
+        CompletableFuture<List<Response>> future = publishEventsAsync(subject, events, timeout);
+        return await(future, timeout, events.size() + " events");
+    }
+    
+    /**
+     * Publishes all events on one connection with a single flush and gathers the responses concurrently.
+     * <p>
+     * The responses are in the order of {@code events}. The future completes exceptionally as soon as one of the
+     * events fails or is not answered within {@code timeout}. The in-flight slots of all events are taken at once,
+     * a batch larger than the in-flight limit is rejected.
+     */
+    public CompletableFuture<List<Response>> publishEventsAsync(@NonNull String subject,
+                                                                @NonNull List<Event> events,
+                                                                @NonNull Duration timeout) {
+        if (events.isEmpty()) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        List<byte[]> frames = new ArrayList<>(events.size());
+        for (Event event : events) {
+            frames.add(compressEvent(EventFrameCodec.encodeEvent(event.getName(), event.getBody())));
+        }
+        Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
+        if (connectionOptional.isEmpty()) {
+            return CompletableFuture.failedFuture(new RuntimeException(
+                    "the connection of nats is null when publish events."));
+        }
+        ReplyMultiplexer multiplexer = connectionHolder.getReplyMultiplexer(connectionOptional.get());
+        InFlightLimiter limiter = connectionHolder.getInFlightLimiter();
+        return admitted(subject, frames.size(), () -> {
+            List<CompletableFuture<Message>> replies = multiplexer.requestAll(subject, frames, timeout);
+            List<CompletableFuture<Response>> responses = new ArrayList<>(frames.size());
+            for (CompletableFuture<Message> reply : replies) {
+                reply.whenComplete((r, e) -> limiter.release(subject));
+                responses.add(reply.thenApply(this::decodeResponse));
+            }
+            return gather(responses);
+        });
+    }
+    
+    /**
+     * @return the responses in order, or the first failure of one of them
+     */
+    private static CompletableFuture<List<Response>> gather(List<CompletableFuture<Response>> responses) {
+        CompletableFuture<List<Response>> result = new CompletableFuture<>();
+        for (CompletableFuture<Response> response : responses) {
+            response.whenComplete((r, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                }
+            });
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+            List<Response> list = new ArrayList<>(responses.size());
+            responses.forEach(response -> list.add(response.join()));
+            result.complete(list);
+        });
+        return result;
+    }
+    
+    private CompletableFuture<Response> requestAsync(String subject, byte[] event, Duration timeout) {
+        return requestAsync(subject, null, event, timeout);
+    }
+    
+    private CompletableFuture<Response> requestAsync(String subject, Headers headers, byte[] event, Duration timeout) {
+        Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
+        if (connectionOptional.isEmpty()) {
+            return CompletableFuture.failedFuture(new RuntimeException(
+                    "the connection of nats is null when publish event."));
+        }
+        ReplyMultiplexer multiplexer = connectionHolder.getReplyMultiplexer(connectionOptional.get());
+        byte[] data = compressEvent(event);
+        return limited(subject, () -> multiplexer.request(subject, headers, data, timeout)
+                .thenApply(this::decodeResponse));
+    }
+    
+    /**
+     * Sends the request only when the {@link InFlightLimiter} admits it, the permit is given back when the
+     * response arrives or the request fails.
+     */
+    private <T> CompletableFuture<T> limited(String subject, Supplier<CompletableFuture<T>> request) {
+        InFlightLimiter limiter = connectionHolder.getInFlightLimiter();
+        return admitted(subject, 1, () -> {
+            CompletableFuture<T> future = request.get();
+            future.whenComplete((r, e) -> limiter.release(subject));
+            return future;
+        });
+    }
+    
+    /**
+     * Runs {@code request} once the {@link InFlightLimiter} admitted {@code permits} requests to {@code subject},
+     * the request gives the permits back as its responses arrive. A caller cancelling the returned future while
+     * the request is queued withdraws it, the request is then never sent.
+     */
+    private <T> CompletableFuture<T> admitted(String subject, int permits, Supplier<CompletableFuture<T>> request) {
+        InFlightLimiter limiter = connectionHolder.getInFlightLimiter();
+        CompletableFuture<Void> admission = limiter.acquire(subject, permits);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                admission.cancel(false);
+            }
+        });
+        admission.whenComplete((admitted, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+            if (result.isDone()) {
+                limiter.release(subject, permits);
+                return;
+            }
+            CompletableFuture<T> future;
+            try {
+                future = request.get();
+            } catch (RuntimeException ex) {
+                limiter.release(subject, permits);
+                result.completeExceptionally(ex);
+                return;
+            }
+            future.whenComplete((r, ex) -> {
+                if (ex != null) {
+                    result.completeExceptionally(ex);
+                } else {
+                    result.complete(r);
+                }
+            });
+        });
+        return result;
+    }
+    
+    private void publishNoReply(String subject, byte[] event) {
+        publishNoReply(subject, null, event);
+    }
+    
+    private void publishNoReply(String subject, Headers headers, byte[] event) {
         Optional<Connection> connectionOptional = connectionHolder.getValidateConnection();
         if (connectionOptional.isEmpty()) {
             throw new RuntimeException("the connection of nats is null when publish event.");
         }
         Connection connection = connectionOptional.get();
-        String replay = connection.createInbox();
-        connection.publish(subject, replay, eventBuf.array());
-        Subscription subscribe = connection.subscribe(replay);
-        Message message;
+        connection.publish(subject, headers, compressEvent(event));
+        connectionHolder.getFlushCoalescer().published(connection);
+    }
+    
+    private byte[] compressEvent(byte[] event) {
+        NatsProperties properties = connectionHolder.getProperties();
+        String compression = properties.getCompression();
+        if (!StringUtils.hasLength(compression)) {
+            return event;
+        }
+        PayloadCompressor compressor = PayloadCompressors.get(compression);
         try {
-            message = subscribe.nextMessage(Duration.ofSeconds(timeout));
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
+            return EventFrameCodec.compressEvent(event, compressor, properties.getCompressionThreshold());
+        } catch (IOException e) {
+            log.warn("compress event with {} failed, send it uncompressed.", compression, e);
+            return event;
         }
-        Response response = new Response();
-        byte[] messageData = message.getData();
-        ByteBuf resBuf = Unpooled.wrappedBuffer(messageData);
-        int readableBytes = resBuf.readableBytes();
-        if (readableBytes < 5) {
-            throw new RuntimeException("Protocol format exception in response data.");
+    }
+    
+    private void reply(Connection connection, String replyTo, byte[] responseFrame) {
+        if (idempotencyCache != null) {
+            idempotencyCache.replied(replyTo, responseFrame);
         }
-        int success = resBuf.readByte();
-        response.setSuccess(success == 1);
-        int bodySize = resBuf.readInt();
-        readableBytes = resBuf.readableBytes();
-        if (readableBytes < bodySize) {
-            throw new RuntimeException("Protocol format exception in body data of response");
+        connection.publish(replyTo, compressResponse(responseFrame));
+    }
+    
+    private byte[] compressResponse(byte[] responseFrame) {
+        NatsProperties properties = connectionHolder.getProperties();
+        String compression = properties.getCompression();
+        if (!StringUtils.hasLength(compression)) {
+            return responseFrame;
+        }
+        PayloadCompressor compressor = PayloadCompressors.get(compression);
+        try {
+            return EventFrameCodec.compressResponse(responseFrame, compressor, properties.getCompressionThreshold());
+        } catch (IOException e) {
+            log.warn("compress response with {} failed, send it uncompressed.", compression, e);
+            return responseFrame;
         }
-        ByteBuf byteBuf = resBuf.readBytes(bodySize);
-        response.setData(byteBuf.toString(StandardCharsets.UTF_8));
-        byteBuf.release();
-        return response;
     }
     
+    private <T> T await(CompletableFuture<T> future, Duration timeout, String what) {
+        try {
+            return future.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw new RuntimeException("waiting for the response of " + what + " timeout.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException(cause.getMessage(), cause);
+        }
+    }
+    
+    private Response decodeResponse(Message message) {
+        return EventFrameCodec.decodeResponse(message.getData());
+    }
+    
+    /**
+     * Dispatches a received event, or every event of an envelope, to its {@link EventProcessor} and replies when
+     * the message has a reply subject. The processor runs on the calling thread, or on a virtual thread of its
+     * own with {@code app.template.nats.event-execution=virtual}, or on the lane of its key with
+     * {@code ordered}, unless a bulkhead is configured for its event type in {@code app.template.nats.bulkheads}.
+     * Events of a {@link BatchEventProcessor} are queued for its next batch instead.
+     *
+     * @throws IllegalArgumentException when the message is no event frame or no processor handles the event
+     */
     public void handOriginalMessage(Message message) {
-        byte[] data = message.getData();
-        if (data.length <= 5) {
-            throw new IllegalArgumentException("Received abnormal NATS data with data length <= 5");
-        }
-        ByteBuf bodyBuf = Unpooled.wrappedBuffer(data);
-        int nameLength = bodyBuf.readByte();
-        int readableBytes = bodyBuf.readableBytes();
-        if (readableBytes < nameLength) {
-            String info = String.format(
-                    "Received abnormal message, event name length is not the expected size, expected:%s, actual:%s",
-                    nameLength,
-                    readableBytes
-            );
-            throw new IllegalArgumentException(info);
+        EventFrame frame = EventFrameCodec.decodeEvent(message.getData());
+        if (!EventFrameCodec.isEnvelope(frame)) {
+            handEvent(message, frame, message.getReplyTo());
+            return;
         }
-        ByteBuf nameByteBuf = bodyBuf.readBytes(nameLength);
-        String eventName = nameByteBuf.toString(StandardCharsets.UTF_8);
-        EventProcessor processor = EventProcessor.ALL_EVENT_PROCESSOR.get(eventName);
+        for (EventFrame event : EventFrameCodec.decodeEnvelope(frame)) {
+            try {
+                handEvent(message, event, null);
+            } catch (RuntimeException e) {
+                log.error("handle the batched event {} failed.", event.name(), e);
+            }
+        }
+    }
+    
+    private void handEvent(Message message, EventFrame frame, String replyTo) {
+        EventProcessor processor = EventProcessorIndex.find(frame);
         if (processor == null) {
             String info = String.format(
                     "Received message event:%s, but the corresponding message processor was not found.",
-                    eventName
+                    frame.name()
             );
             throw new IllegalArgumentException(info);
         }
-        int bodyLength = bodyBuf.readInt();
-        readableBytes = bodyBuf.readableBytes();
-        if (readableBytes < bodyLength) {
-            String info = String.format(
-                    "Received abnormal message, event body length is not the expected size, expected: %s, actual: %s",
-                    bodyLength,
-                    readableBytes
-            );
-            throw new IllegalArgumentException(info);
+        if (idempotencyCache != null && isDuplicate(message, processor, replyTo)) {
+            return;
+        }
+        if (processor instanceof BatchEventProcessor batchProcessor) {
+            EventBatchCollector collector = batchCollectors.computeIfAbsent(batchProcessor, this::newBatchCollector);
+            try {
+                collector.add(frame.body(), message.getConnection(), replyTo);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("the event {} is dropped, interrupted while waiting for its batch.", processor.getEventType());
+            }
+            return;
+        }
+        EventBulkhead bulkhead = bulkheads.isEmpty() ? null : bulkheads.get(processor.getEventType());
+        if (bulkhead != null) {
+            if (!bulkhead.execute(() -> process(processor, message, frame, replyTo, true))
+                    && StringUtils.hasLength(replyTo)) {
+                String error = "the bulkhead of event " + processor.getEventType() + " is full.";
+                reply(message.getConnection(), replyTo, EventFrameCodec.encodeResponse(false, error));
+            }
+            return;
+        }
+        if (eventLanes != null) {
+            String key = eventKey(message, processor);
+            try {
+                eventLanes.execute(key, () -> process(processor, message, frame, replyTo));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("the event {} is dropped, interrupted while waiting for its lane.", processor.getEventType());
+            }
+            return;
+        }
+        if (eventExecutor == null) {
+            process(processor, message, frame, replyTo);
+            return;
+        }
+        executeVirtual(processor, message, frame, replyTo);
+    }
+    
+    /**
+     * Processes the event on a virtual thread of its own. With {@code app.template.nats.virtual-max-concurrency}
+     * the dispatcher waits for a free permit before handing the event off, so a burst backs up in the pending
+     * messages of the subscription, where its pending limits and slow consumer policy apply, instead of starting
+     * an unbounded number of threads.
+     */
+    private void executeVirtual(EventProcessor processor, Message message, EventFrame frame, String replyTo) {
+        if (eventPermits != null) {
+            try {
+                eventPermits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("the event {} is dropped, interrupted while waiting for a virtual thread.",
+                         processor.getEventType()
+                );
+                return;
+            }
+        }
+        try {
+            eventExecutor.execute(() -> {
+                try {
+                    process(processor, message, frame, replyTo);
+                } finally {
+                    if (eventPermits != null) {
+                        eventPermits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (eventPermits != null) {
+                eventPermits.release();
+            }
+            log.warn("the event {} is dropped, the event executor is shut down.", processor.getEventType());
+        }
+    }
+    
+    /**
+     * Answers a retried request from the idempotency cache, or registers the request so its response is
+     * remembered.
+     */
+    private boolean isDuplicate(Message message, EventProcessor processor, String replyTo) {
+        if (!StringUtils.hasLength(replyTo) || !message.hasHeaders() || ResponseStream.isRequested(message)) {
+            return false;
+        }
+        String requestId = message.getHeaders().getFirst(connectionHolder.getProperties().getRequestIdHeader());
+        if (requestId == null) {
+            return false;
         }
-        String jsonBody = null;
-        if (bodyLength != 0) {
-            jsonBody = bodyBuf.readBytes(bodyLength).toString(StandardCharsets.UTF_8);
+        String key = processor.getEventType() + ':' + requestId;
+        CompletableFuture<byte[]> response = idempotencyCache.join(key, replyTo);
+        if (response == null) {
+            return false;
         }
         Connection connection = message.getConnection();
-        String replyTo = message.getReplyTo();
+        response.thenAccept(frame -> reply(connection, replyTo, frame));
+        return true;
+    }
+    
+    private EventBatchCollector newBatchCollector(BatchEventProcessor processor) {
+        return new EventBatchCollector(processor, this::reply);
+    }
+    
+    private String eventKey(Message message, EventProcessor processor) {
+        if (message.hasHeaders()) {
+            String key = message.getHeaders().getFirst(connectionHolder.getProperties().getEventKeyHeader());
+            if (key != null) {
+                return key;
+            }
+        }
+        return processor.getEventType();
+    }
+    
+    private void process(EventProcessor processor, Message message, EventFrame frame, String replyTo) {
+        process(processor, message, frame, replyTo, false);
+    }
+    
+    /**
+     * @param holdThread whether an {@link AsyncEventProcessor} keeps the calling thread until its stage completed,
+     *                   so a bulkhead bounds the async events in progress and not only the calls of handleAsync
+     */
+    private void process(EventProcessor processor,
+                         Message message,
+                         EventFrame frame,
+                         String replyTo,
+                         boolean holdThread) {
+        Connection connection = message.getConnection();
+        if (processor instanceof BinaryEventProcessor binaryProcessor) {
+            handBinaryEvent(binaryProcessor, frame, connection, replyTo);
+            return;
+        }
+        if (processor instanceof StreamingEventProcessor streamingProcessor && ResponseStream.isRequested(message)) {
+            handStreamingEvent(streamingProcessor, message, frame, replyTo);
+            return;
+        }
+        if (processor instanceof AsyncEventProcessor asyncProcessor) {
+            CompletableFuture<Void> replied = handAsyncEvent(asyncProcessor, frame, connection, replyTo);
+            if (holdThread) {
+                try {
+                    replied.join();
+                } catch (RuntimeException e) {
+                    log.error("reply to the async event {} failed.", processor.getEventType(), e);
+                }
+            }
+            return;
+        }
+        if (processor instanceof TypedEventProcessor<?, ?> typedProcessor) {
+            handTypedEvent(typedProcessor, frame, connection, replyTo);
+            return;
+        }
+        String jsonBody = frame.body();
         String response;
         boolean success = true;
         try {
@@ -125,20 +886,126 @@ public class TemplateNatsService {
             log.error("", e);
         }
         if (StringUtils.hasLength(replyTo)) {
-            ByteBuf responseBuf = Unpooled.buffer();
-            if (success) {
-                responseBuf.writeByte(1);
-            } else {
-                responseBuf.writeByte(0);
+            reply(connection, replyTo, EventFrameCodec.encodeResponse(success, response));
+        }
+    }
+    
+    /**
+     * @return a future completed once the stage completed and its response was sent
+     */
+    private CompletableFuture<Void> handAsyncEvent(AsyncEventProcessor processor,
+                                                   EventFrame frame,
+                                                   Connection connection,
+                                                   String replyTo) {
+        CompletionStage<String> stage;
+        try {
+            stage = processor.handleAsync(frame.body(), connection);
+            if (stage == null) {
+                stage = CompletableFuture.completedFuture(null);
             }
-            if (StringUtils.hasLength(response)) {
-                byte[] responseBytes = response.getBytes(StandardCharsets.UTF_8);
-                responseBuf.writeInt(responseBytes.length);
-                responseBuf.writeBytes(responseBytes);
-            } else {
-                responseBuf.writeInt(0);
+        } catch (Throwable e) {
+            stage = CompletableFuture.failedFuture(e);
+        }
+        return stage.handle((response, e) -> {
+            boolean success = e == null;
+            if (!success) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                response = cause.getMessage();
+                log.error("", cause);
+            }
+            if (StringUtils.hasLength(replyTo)) {
+                reply(connection, replyTo, EventFrameCodec.encodeResponse(success, response));
+            }
+            return (Void) null;
+        }).toCompletableFuture();
+    }
+    
+    private void handBinaryEvent(BinaryEventProcessor processor,
+                                 EventFrame frame,
+                                 Connection connection,
+                                 String replyTo) {
+        byte[] response;
+        boolean success = true;
+        try {
+            response = processor.handle(frame.bodyBuffer(), connection);
+        } catch (Throwable e) {
+            success = false;
+            String error = e.getMessage();
+            response = error == null ? null : error.getBytes(StandardCharsets.UTF_8);
+            log.error("", e);
+        }
+        if (StringUtils.hasLength(replyTo)) {
+            reply(connection, replyTo, EventFrameCodec.encodeResponse(success, response));
+        }
+    }
+    
+    private <T, R> void handTypedEvent(TypedEventProcessor<T, R> processor,
+                                       EventFrame frame,
+                                       Connection connection,
+                                       String replyTo) {
+        String eventName = processor.getEventType();
+        String codecName = processor.getCodecName();
+        NatsProperties properties = connectionHolder.getProperties();
+        NatsCodec codec = codecName == null ? properties.codecFor(eventName) : NatsCodecs.get(codecName);
+        R response = null;
+        String error = null;
+        try {
+            T event = codec.decode(frame.getBodyData(), frame.getBodyOffset(), frame.getBodyLength(),
+                                   processor.getEventClass()
+            );
+            response = processor.handle(event, connection);
+        } catch (Throwable e) {
+            error = e.getMessage();
+            log.error("", e);
+        }
+        if (!StringUtils.hasLength(replyTo)) {
+            return;
+        }
+        byte[] responseFrame;
+        if (error == null) {
+            try {
+                responseFrame = EventFrameCodec.encodeResponse(true, codec, response);
+            } catch (IOException e) {
+                log.error("encode the response of event {} failed.", eventName, e);
+                responseFrame = EventFrameCodec.encodeResponse(false, e.getMessage());
             }
-            connection.publish(replyTo, responseBuf.array());
+        } else {
+            responseFrame = EventFrameCodec.encodeResponse(false, error);
+        }
+        reply(connection, replyTo, responseFrame);
+    }
+    
+    private void handStreamingEvent(StreamingEventProcessor processor,
+                                    Message message,
+                                    EventFrame frame,
+                                    String replyTo) {
+        Connection connection = message.getConnection();
+        if (!StringUtils.hasLength(replyTo)) {
+            log.warn("Received streaming event {} without reply subject, it is ignored.", processor.getEventType());
+            return;
+        }
+        NatsProperties properties = connectionHolder.getProperties();
+        int window = ResponseStream.window(message, properties.getStreamWindow());
+        ResponseStream stream = new ResponseStream(connection,
+                                                   replyTo,
+                                                   window,
+                                                   properties.getStreamCreditTimeout(),
+                                                   this::compressResponse
+        );
+        String eventType = processor.getEventType();
+        try {
+            // waiting for credit must not hold the dispatcher thread, which other events are delivered on
+            streamExecutor.execute(() -> {
+                try {
+                    processor.handle(frame.body(), stream, connection);
+                    stream.complete();
+                } catch (Throwable e) {
+                    log.error("stream the responses of event {} to {} failed.", eventType, replyTo, e);
+                    stream.error(e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.warn("the streaming event {} is dropped, the stream executor is shut down.", eventType);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,55 @@
+package com.lrenyi.spring.nats;
+
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import io.nats.client.Connection;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import lombok.Getter;
+
+/**
+ * An {@link EventProcessor} receiving the decoded event body and returning an object which is encoded into the
+ * response frame, both with the codec configured for its event type.
+ *
+ * @param <T> type of the event body
+ * @param <R> type of the response
+ */
+@Getter
+public abstract class TypedEventProcessor<T, R> implements EventProcessor {
+    private final Class<T> eventClass;
+    
+    protected TypedEventProcessor(Class<T> eventClass) {
+        this.eventClass = eventClass;
+    }
+    
+    /**
+     * @return the name of the codec this processor uses, null to use the codec configured for the event type
+     */
+    public String getCodecName() {
+        return null;
+    }
+    
+    public abstract R handle(T event, Connection connection) throws Throwable;
+    
+    /**
+     * The text form of the processor: event and response are JSON, whatever codec is used on the wire. Received
+     * events do not take this path, they are decoded from the frame and their response is encoded into the
+     * response frame with the configured codec.
+     */
+    @Override
+    public String handler(String jsonData, Connection connection) throws Throwable {
+        NatsCodec codec = NatsCodecs.get(NatsCodecs.JSON);
+        T event = null;
+        if (jsonData != null) {
+            byte[] data = jsonData.getBytes(StandardCharsets.UTF_8);
+            event = codec.decode(data, 0, data.length, eventClass);
+        }
+        R response = handle(event, connection);
+        if (response == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(response, out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
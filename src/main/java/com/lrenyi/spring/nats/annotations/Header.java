@@ -0,0 +1,17 @@
+package com.lrenyi.spring.nats.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a {@code String} parameter of a {@link Subscribe} method to the first value of a message header, null
+ * when the message does not have it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface Header {
+    
+    String value();
+}
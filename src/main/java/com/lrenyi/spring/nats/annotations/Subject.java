@@ -0,0 +1,14 @@
+package com.lrenyi.spring.nats.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Binds a {@code String} parameter of a {@link Subscribe} method to the subject the message was published to.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface Subject {
+}
@@ -15,4 +15,40 @@ public @interface Subscribe {
     @AliasFor("value") String subscribe() default "";
     
     String queue() default "";
+    
+    /**
+     * With the pool dispatcher strategy, subscriptions of the same group share one dispatcher thread.
+     */
+    String group() default "";
+    
+    /**
+     * Queue group members created for the method, spread over the pooled connections, so one subject can be
+     * consumed in parallel. More than one member requires a {@link #queue()}, the members join that queue group.
+     */
+    int concurrency() default 1;
+    
+    /**
+     * The members may grow to this many when consumers are added at runtime, 0 means concurrency.
+     */
+    int maxConcurrency() default 0;
+    
+    /**
+     * Codec decoding the message data into a parameter of another type than {@code Message}, {@code byte[]},
+     * {@code ByteBuffer}, {@code String} or {@code Headers}, empty means {@code app.template.nats.default-codec}.
+     */
+    String codec() default "";
+    
+    /**
+     * Messages the subscription keeps pending at most before the client drops further ones, 0 means unlimited and
+     * a negative value {@code app.template.nats.pending-message-limit}. Only applies with the per subscription
+     * dispatcher strategy, the shared and pooled dispatchers keep {@code app.template.nats.pending-message-limit}
+     * and a limit set here is ignored with a warning at registration.
+     */
+    long pendingMessageLimit() default -1;
+    
+    /**
+     * Bytes the subscription keeps pending at most, like {@link #pendingMessageLimit()} only with the per
+     * subscription dispatcher strategy.
+     */
+    long pendingByteLimit() default -1;
 }
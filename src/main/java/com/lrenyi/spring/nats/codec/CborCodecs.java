@@ -0,0 +1,19 @@
+package com.lrenyi.spring.nats.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+/**
+ * Holds the only reference to the optional CBOR data format, so the class is loaded, and verified, only after
+ * {@link JacksonCodec#registerDefaults} found it on the classpath.
+ */
+final class CborCodecs {
+    
+    private CborCodecs() {
+    }
+    
+    static void register() {
+        ObjectMapper mapper = new ObjectMapper(new CBORFactory()).findAndRegisterModules();
+        NatsCodecs.register(new JacksonCodec(NatsCodecs.CBOR, mapper));
+    }
+}
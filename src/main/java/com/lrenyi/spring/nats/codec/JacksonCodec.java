@@ -0,0 +1,67 @@
+package com.lrenyi.spring.nats.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.util.ClassUtils;
+
+/**
+ * A codec backed by a Jackson {@link ObjectMapper}, the reader and writer of every type are resolved once and
+ * cached.
+ */
+public class JacksonCodec implements NatsCodec {
+    private final String name;
+    private final ObjectMapper mapper;
+    private final Map<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+    private final Map<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+    
+    public JacksonCodec(String name, ObjectMapper mapper) {
+        this.name = name;
+        this.mapper = mapper;
+    }
+    
+    static void registerDefaults(ClassLoader classLoader) {
+        NatsCodecs.register(new JacksonCodec(NatsCodecs.JSON, new ObjectMapper().findAndRegisterModules()));
+        if (ClassUtils.isPresent("com.fasterxml.jackson.dataformat.cbor.CBORFactory", classLoader)) {
+            CborCodecs.register();
+        }
+    }
+    
+    @Override
+    public String getName() {
+        return name;
+    }
+    
+    @Override
+    public void encode(Object value, OutputStream out) throws IOException {
+        if (value == null) {
+            return;
+        }
+        writers.computeIfAbsent(value.getClass(), mapper::writerFor).writeValue(out, value);
+    }
+    
+    @Override
+    public <T> T decode(byte[] data, int offset, int length, Class<T> type) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+        return reader(type).readValue(data, offset, length);
+    }
+    
+    @Override
+    public Object decode(byte[] data, int offset, int length, Type type) throws IOException {
+        if (length == 0) {
+            return null;
+        }
+        return reader(type).readValue(data, offset, length);
+    }
+    
+    private ObjectReader reader(Type type) {
+        return readers.computeIfAbsent(type, t -> mapper.readerFor(mapper.constructType(t)));
+    }
+}
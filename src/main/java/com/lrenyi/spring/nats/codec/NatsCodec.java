@@ -0,0 +1,35 @@
+package com.lrenyi.spring.nats.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+
+/**
+ * Serializes typed event bodies and responses.
+ * <p>
+ * Implementations are registered in {@link NatsCodecs} by {@link #getName()}, either built in or discovered with
+ * {@link java.util.ServiceLoader}. They are expected to cache whatever per-type state their serializer needs
+ * and must be thread-safe.
+ */
+public interface NatsCodec {
+    
+    String getName();
+    
+    /**
+     * Writes {@code value} to {@code out}, which is the buffer of the outgoing frame.
+     */
+    void encode(Object value, OutputStream out) throws IOException;
+    
+    <T> T decode(byte[] data, int offset, int length, Class<T> type) throws IOException;
+    
+    /**
+     * Decodes a generic type such as {@code List<Order>}, codecs without generic support only accept classes.
+     */
+    default Object decode(byte[] data, int offset, int length, Type type) throws IOException {
+        if (type instanceof Class<?> clazz) {
+            return decode(data, offset, length, clazz);
+        }
+        throw new IOException("the codec " + getName() + " cannot decode the generic type " + type.getTypeName()
+                                      + ".");
+    }
+}
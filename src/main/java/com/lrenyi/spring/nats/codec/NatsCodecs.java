@@ -0,0 +1,47 @@
+package com.lrenyi.spring.nats.codec;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Registry of the available {@link NatsCodec}s.
+ * <p>
+ * {@value #JSON} and {@value #CBOR} are registered when Jackson (and its CBOR data format) are on the classpath,
+ * further codecs such as Protobuf are discovered through {@link ServiceLoader} or added with
+ * {@link #register(NatsCodec)}.
+ */
+@Slf4j
+public final class NatsCodecs {
+    public static final String JSON = "json";
+    public static final String CBOR = "cbor";
+    private static final Map<String, NatsCodec> ALL_CODEC = new ConcurrentHashMap<>();
+    
+    static {
+        ClassLoader classLoader = NatsCodecs.class.getClassLoader();
+        if (ClassUtils.isPresent("com.fasterxml.jackson.databind.ObjectMapper", classLoader)) {
+            JacksonCodec.registerDefaults(classLoader);
+        }
+        for (NatsCodec codec : ServiceLoader.load(NatsCodec.class)) {
+            register(codec);
+            log.info("discover nats codec: {}", codec.getName());
+        }
+    }
+    
+    private NatsCodecs() {
+    }
+    
+    public static void register(NatsCodec codec) {
+        ALL_CODEC.put(codec.getName(), codec);
+    }
+    
+    public static NatsCodec get(String name) {
+        NatsCodec codec = ALL_CODEC.get(name);
+        if (codec == null) {
+            throw new IllegalArgumentException("the codec " + name + " of nats is not registered.");
+        }
+        return codec;
+    }
+}
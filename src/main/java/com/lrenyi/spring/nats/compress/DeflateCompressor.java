@@ -0,0 +1,63 @@
+package com.lrenyi.spring.nats.compress;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class DeflateCompressor implements PayloadCompressor {
+    public static final int ID = 1;
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(() -> new Deflater(
+            Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    
+    @Override
+    public int getId() {
+        return ID;
+    }
+    
+    @Override
+    public String getName() {
+        return PayloadCompressors.DEFLATE;
+    }
+    
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+        byte[] out = new byte[Math.max(64, length / 2)];
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == out.length) {
+                out = Arrays.copyOf(out, out.length << 1);
+            }
+            size += deflater.deflate(out, size, out.length - size);
+        }
+        return size == out.length ? out : Arrays.copyOf(out, size);
+    }
+    
+    @Override
+    public void decompress(byte[] data, int offset, int length, byte[] dst) throws IOException {
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, offset, length);
+        try {
+            int size = 0;
+            while (size < dst.length && !inflater.finished()) {
+                int inflated = inflater.inflate(dst, size, dst.length - size);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += inflated;
+            }
+            if (size != dst.length) {
+                throw new IOException("the deflate data is truncated, expected " + dst.length + " bytes.");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+    }
+}
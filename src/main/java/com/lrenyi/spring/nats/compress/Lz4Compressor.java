@@ -0,0 +1,47 @@
+package com.lrenyi.spring.nats.compress;
+
+import java.io.IOException;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+public class Lz4Compressor implements PayloadCompressor {
+    public static final int ID = 2;
+    private final LZ4Compressor compressor;
+    private final LZ4SafeDecompressor decompressor;
+    
+    public Lz4Compressor() {
+        LZ4Factory factory = LZ4Factory.fastestInstance();
+        this.compressor = factory.fastCompressor();
+        this.decompressor = factory.safeDecompressor();
+    }
+    
+    @Override
+    public int getId() {
+        return ID;
+    }
+    
+    @Override
+    public String getName() {
+        return PayloadCompressors.LZ4;
+    }
+    
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) {
+        return compressor.compress(data, offset, length);
+    }
+    
+    @Override
+    public void decompress(byte[] data, int offset, int length, byte[] dst) throws IOException {
+        int size;
+        try {
+            size = decompressor.decompress(data, offset, length, dst, 0);
+        } catch (LZ4Exception e) {
+            throw new IOException("lz4 decompress failed.", e);
+        }
+        if (size != dst.length) {
+            throw new IOException("the lz4 data is truncated, expected " + dst.length + " bytes.");
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.lrenyi.spring.nats.compress;
+
+import java.io.IOException;
+
+/**
+ * Compresses event and response bodies above the configured size threshold.
+ * <p>
+ * The {@link #getId() id} is written into the frame so the receiver can decompress without any configuration,
+ * it has to be unique and the same on every service. Implementations must be thread-safe.
+ */
+public interface PayloadCompressor {
+    
+    int getId();
+    
+    String getName();
+    
+    byte[] compress(byte[] data, int offset, int length) throws IOException;
+    
+    /**
+     * Decompresses into {@code dst}, which has exactly the size of the original data.
+     */
+    void decompress(byte[] data, int offset, int length, byte[] dst) throws IOException;
+}
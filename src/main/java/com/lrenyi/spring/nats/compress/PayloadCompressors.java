@@ -0,0 +1,64 @@
+package com.lrenyi.spring.nats.compress;
+
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Registry of the available {@link PayloadCompressor}s, looked up by name when publishing and by the id carried
+ * in the frame when receiving. {@value #LZ4} and {@value #ZSTD} are available when lz4-java or zstd-jni are on
+ * the classpath.
+ */
+@Slf4j
+public final class PayloadCompressors {
+    public static final String DEFLATE = "deflate";
+    public static final String LZ4 = "lz4";
+    public static final String ZSTD = "zstd";
+    private static final Map<String, PayloadCompressor> BY_NAME = new ConcurrentHashMap<>();
+    private static final PayloadCompressor[] BY_ID = new PayloadCompressor[256];
+    
+    static {
+        ClassLoader classLoader = PayloadCompressors.class.getClassLoader();
+        register(new DeflateCompressor());
+        if (ClassUtils.isPresent("net.jpountz.lz4.LZ4Factory", classLoader)) {
+            register(new Lz4Compressor());
+        }
+        if (ClassUtils.isPresent("com.github.luben.zstd.Zstd", classLoader)) {
+            register(new ZstdCompressor());
+        }
+        for (PayloadCompressor compressor : ServiceLoader.load(PayloadCompressor.class)) {
+            register(compressor);
+            log.info("discover nats payload compressor: {}", compressor.getName());
+        }
+    }
+    
+    private PayloadCompressors() {
+    }
+    
+    public static synchronized void register(PayloadCompressor compressor) {
+        int id = compressor.getId();
+        if (id <= 0 || id >= BY_ID.length) {
+            throw new IllegalArgumentException("the id of payload compressor must be in [1, 255], actual: " + id);
+        }
+        BY_ID[id] = compressor;
+        BY_NAME.put(compressor.getName(), compressor);
+    }
+    
+    public static PayloadCompressor get(String name) {
+        PayloadCompressor compressor = BY_NAME.get(name);
+        if (compressor == null) {
+            throw new IllegalArgumentException("the payload compressor " + name + " is not available.");
+        }
+        return compressor;
+    }
+    
+    public static PayloadCompressor get(int id) {
+        PayloadCompressor compressor = id > 0 && id < BY_ID.length ? BY_ID[id] : null;
+        if (compressor == null) {
+            throw new IllegalArgumentException("Received a body compressed with unknown compressor id " + id);
+        }
+        return compressor;
+    }
+}
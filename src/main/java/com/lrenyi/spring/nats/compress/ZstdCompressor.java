@@ -0,0 +1,41 @@
+package com.lrenyi.spring.nats.compress;
+
+import com.github.luben.zstd.Zstd;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class ZstdCompressor implements PayloadCompressor {
+    public static final int ID = 3;
+    private static final int LEVEL = 3;
+    
+    @Override
+    public int getId() {
+        return ID;
+    }
+    
+    @Override
+    public String getName() {
+        return PayloadCompressors.ZSTD;
+    }
+    
+    @Override
+    public byte[] compress(byte[] data, int offset, int length) throws IOException {
+        byte[] out = new byte[(int) Zstd.compressBound(length)];
+        long size = Zstd.compressByteArray(out, 0, out.length, data, offset, length, LEVEL);
+        if (Zstd.isError(size)) {
+            throw new IOException("zstd compress failed: " + Zstd.getErrorName(size));
+        }
+        return Arrays.copyOf(out, (int) size);
+    }
+    
+    @Override
+    public void decompress(byte[] data, int offset, int length, byte[] dst) throws IOException {
+        long size = Zstd.decompressByteArray(dst, 0, dst.length, data, offset, length);
+        if (Zstd.isError(size)) {
+            throw new IOException("zstd decompress failed: " + Zstd.getErrorName(size));
+        }
+        if (size != dst.length) {
+            throw new IOException("the zstd data is truncated, expected " + dst.length + " bytes.");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.lrenyi.spring.nats.annotations.Subscribe;
+import io.nats.client.Connection;
+import java.lang.reflect.Method;
+import java.security.InvalidParameterException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class ConnectionHolderTest {
+    private final Queue<StubConnection> reconnects = new ArrayDeque<>();
+    private final Listener listener = new Listener();
+    private ConnectionHolder holder;
+    
+    @AfterEach
+    public void shutdown() {
+        holder.destroy();
+    }
+    
+    @Test
+    public void testMembersAreSpreadOverConnections() throws Exception {
+        StubConnection first = new StubConnection();
+        StubConnection second = new StubConnection();
+        holder = holder(first, second);
+        holder.postProcessAfterInitialization(listener, "listener");
+        
+        assertEquals(2, first.subscriptions.size());
+        assertEquals(1, second.subscriptions.size());
+        assertTrue(first.subscriptions.stream().allMatch(s -> s.queue.equals("orders")));
+        SubscribeInfo info = subscribeInfo(listener);
+        assertEquals(3, holder.getConsumerCount(info));
+        
+        assertTrue(holder.addConsumer(info));
+        assertFalse(holder.addConsumer(info));
+        assertEquals(4, holder.getConsumerCount(info));
+        assertEquals(2, second.subscriptions.size());
+    }
+    
+    @Test
+    public void testFailedAddKeepsTheCount() throws Exception {
+        StubConnection connection = new StubConnection();
+        holder = holder(connection);
+        holder.postProcessAfterInitialization(listener, "listener");
+        SubscribeInfo info = subscribeInfo(listener);
+        
+        holder.findAllConnection().clear();
+        assertThrows(InvalidParameterException.class, () -> holder.addConsumer(info));
+        assertEquals(3, holder.getConsumerCount(info));
+        
+        holder.setConnection(connection.connection);
+        assertTrue(holder.addConsumer(info));
+        assertEquals(4, holder.getConsumerCount(info));
+    }
+    
+    @Test
+    public void testMembersAreResubscribedAfterReconnect() throws Exception {
+        StubConnection first = new StubConnection();
+        StubConnection second = new StubConnection();
+        holder = holder(first, second);
+        holder.postProcessAfterInitialization(listener, "listener");
+        StubConnection replacement = new StubConnection();
+        reconnects.add(replacement);
+        
+        first.status = Connection.Status.CLOSED;
+        holder.reconnectClosed();
+        
+        assertEquals(2, replacement.subscriptions.size());
+        assertTrue(replacement.subscriptions.stream().allMatch(s -> s.subject.equals("orders")));
+        assertEquals(List.of(second.connection, replacement.connection), holder.findAllConnection());
+    }
+    
+    @Test
+    public void testSeveralMembersRequireAQueue() throws Exception {
+        holder = holder(new StubConnection());
+        
+        assertThrows(InvalidParameterException.class, () -> {
+            holder.postProcessAfterInitialization(new Broadcast(), "broadcast");
+        });
+    }
+    
+    @Test
+    public void testSlowConsumerSettingsAreValidated() {
+        NatsProperties properties = new NatsProperties();
+        properties.setSlowConsumerCheckInterval(Duration.ZERO);
+        assertThrows(IllegalArgumentException.class, () -> holder(properties, new StubConnection()));
+        
+        properties.setSlowConsumerCheckInterval(Duration.ofSeconds(1));
+        properties.setSlowConsumerThreshold(1.5);
+        assertThrows(IllegalArgumentException.class, () -> holder(properties, new StubConnection()));
+    }
+    
+    private ConnectionHolder holder(StubConnection... connections) throws Exception {
+        return holder(new NatsProperties(), connections);
+    }
+    
+    private ConnectionHolder holder(NatsProperties properties, StubConnection... connections) throws Exception {
+        ConnectionHolder connectionHolder = new ConnectionHolder() {
+            @Override
+            Connection connect() {
+                StubConnection connection = reconnects.poll();
+                return connection == null ? null : connection.connection;
+            }
+        };
+        holder = connectionHolder;
+        connectionHolder.setProperties(properties);
+        for (StubConnection connection : connections) {
+            connectionHolder.setConnection(connection.connection);
+        }
+        connectionHolder.afterPropertiesSet();
+        return connectionHolder;
+    }
+    
+    private static SubscribeInfo subscribeInfo(Listener listener) throws Exception {
+        Method method = Listener.class.getMethod("onOrder", String.class);
+        return new SubscribeInfo(listener, method, method.getAnnotation(Subscribe.class));
+    }
+    
+    public static class Listener {
+        @Subscribe(value = "orders", queue = "orders", concurrency = 3, maxConcurrency = 4)
+        public void onOrder(String order) {
+        }
+    }
+    
+    public static class Broadcast {
+        @Subscribe(value = "prices", concurrency = 2)
+        public void onPrice(String price) {
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.lrenyi.spring.nats.annotations.Subscribe;
+import io.nats.client.Dispatcher;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class DispatcherPoolTest {
+    private final StubConnection stub = new StubConnection();
+    
+    @Test
+    public void testGroupsKeepTheirDispatcher() {
+        DispatcherPool pool = new DispatcherPool(stub.connection, 4, 1000, 2048);
+        Dispatcher orders = pool.get("orders");
+        
+        assertSame(orders, pool.get("orders"));
+        assertSame(orders, pool.get("orders"));
+        assertEquals(1, stub.dispatchers.size());
+        assertEquals(1000, stub.dispatchers.getFirst().pendingMessageLimit);
+        assertEquals(2048, stub.dispatchers.getFirst().pendingByteLimit);
+    }
+    
+    @Test
+    public void testGroupsGetDistinctDispatchers() {
+        DispatcherPool pool = new DispatcherPool(stub.connection, 4, 0, 0);
+        Set<Dispatcher> dispatchers = new HashSet<>();
+        for (String group : List.of("Aa", "BB", "orders", "prices")) {
+            dispatchers.add(pool.get(group));
+        }
+        
+        assertEquals(4, dispatchers.size());
+        assertSame(pool.get("Aa"), pool.get("Aa"));
+        assertEquals(4, stub.dispatchers.size());
+    }
+    
+    @Test
+    public void testUngroupedSubscriptionsAreRoundRobin() {
+        DispatcherPool pool = new DispatcherPool(stub.connection, 3, 0, 0);
+        Dispatcher first = pool.get(null);
+        Dispatcher second = pool.get("");
+        Dispatcher third = pool.get(null);
+        
+        assertNotSame(first, second);
+        assertNotSame(second, third);
+        assertNotSame(first, third);
+        assertSame(first, pool.get(null));
+        assertEquals(3, stub.dispatchers.size());
+    }
+    
+    @Test
+    public void testSharedPoolIsReusedAcrossSubscriptions() throws Exception {
+        NatsProperties properties = new NatsProperties();
+        properties.setDispatcherStrategy(DispatcherStrategy.SHARED);
+        ConnectionHolder holder = new ConnectionHolder();
+        holder.setProperties(properties);
+        holder.setConnection(stub.connection);
+        try {
+            holder.afterPropertiesSet();
+            holder.postProcessAfterInitialization(new Listener(), "listener");
+            
+            assertEquals(1, stub.dispatchers.size());
+            assertEquals(2, stub.dispatchers.getFirst().subscriptions.size());
+        } finally {
+            holder.destroy();
+        }
+    }
+    
+    public static class Listener {
+        @Subscribe("orders")
+        public void onOrder(String order) {
+        }
+        
+        @Subscribe("prices")
+        public void onPrice(String price) {
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.nats.client.Connection;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class EventBatchCollectorTest {
+    
+    @Test
+    public void testBatchCollectorFansOutReplies() throws InterruptedException {
+        List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        BatchEventProcessor processor = new BatchEventProcessor() {
+            @Override
+            public String getEventType() {
+                return "bulk";
+            }
+            
+            @Override
+            public List<String> handleBatch(List<String> events, Connection connection) {
+                batchSizes.add(events.size());
+                return events.stream().map(String::toUpperCase).toList();
+            }
+            
+            @Override
+            public int getMaxBatchSize() {
+                return 3;
+            }
+        };
+        Map<String, String> replies = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(7);
+        EventBatchCollector collector = new EventBatchCollector(processor, (connection, replyTo, frame) -> {
+            replies.put(replyTo, EventFrameCodec.decodeResponse(frame).getData());
+            done.countDown();
+        });
+        for (int i = 0; i < 7; i++) {
+            collector.add("event-" + i, null, "reply-" + i);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 7; i++) {
+            assertEquals("EVENT-" + i, replies.get("reply-" + i));
+        }
+        assertTrue(batchSizes.stream().allMatch(size -> size <= 3));
+    }
+    
+    @Test
+    public void testShutdownAnswersQueuedEvents() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        BatchEventProcessor processor = new BatchEventProcessor() {
+            @Override
+            public String getEventType() {
+                return "slow";
+            }
+            
+            @Override
+            public List<String> handleBatch(List<String> events, Connection connection) throws Exception {
+                started.countDown();
+                release.await();
+                return events;
+            }
+            
+            @Override
+            public int getMaxBatchSize() {
+                return 1;
+            }
+            
+            @Override
+            public Duration getMaxWait() {
+                return Duration.ZERO;
+            }
+        };
+        Map<String, Response> replies = new ConcurrentHashMap<>();
+        EventBatchCollector collector = new EventBatchCollector(processor, (connection, replyTo, frame) -> {
+            replies.put(replyTo, EventFrameCodec.decodeResponse(frame));
+        });
+        collector.add("first", null, "reply-1");
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        collector.add("queued", null, "reply-2");
+        
+        collector.shutdown();
+        collector.add("late", null, "reply-3");
+        release.countDown();
+        
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (replies.size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, replies.size());
+        assertFalse(replies.get("reply-2").isSuccess());
+        assertFalse(replies.get("reply-3").isSuccess());
+    }
+}
@@ -0,0 +1,72 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class EventBatcherTest {
+    private final List<String> sent = new ArrayList<>();
+    private final EventBatcher batcher = new EventBatcher(1024, Duration.ZERO, (subject, data) -> sent.add(subject));
+    
+    @Test
+    public void testEventsArePackedIntoEnvelopesInOrder() {
+        List<byte[]> sent = new ArrayList<>();
+        EventBatcher batcher = new EventBatcher(64, Duration.ofSeconds(1), (subject, envelope) -> sent.add(envelope));
+        for (int i = 0; i < 5; i++) {
+            batcher.add("telemetry", EventFrameCodec.encodeEvent("metric", "value-" + i));
+        }
+        batcher.flushAll();
+        assertEquals(2, sent.size());
+        
+        List<String> bodies = new ArrayList<>();
+        for (byte[] envelope : sent) {
+            EventFrame frame = EventFrameCodec.decodeEvent(envelope);
+            assertTrue(EventFrameCodec.isEnvelope(frame));
+            for (EventFrame event : EventFrameCodec.decodeEnvelope(frame)) {
+                assertEquals("metric", event.name());
+                bodies.add(event.body());
+            }
+        }
+        assertEquals(List.of("value-0", "value-1", "value-2", "value-3", "value-4"), bodies);
+    }
+    
+    @Test
+    public void testOversizedEventLeavesAfterTheOpenEnvelope() {
+        List<byte[]> envelopes = new ArrayList<>();
+        EventBatcher small = new EventBatcher(64, Duration.ofSeconds(1), (subject, data) -> envelopes.add(data));
+        small.add("telemetry", EventFrameCodec.encodeEvent("metric", "first"));
+        small.add("telemetry", EventFrameCodec.encodeEvent("metric", "x".repeat(100)));
+        small.add("telemetry", EventFrameCodec.encodeEvent("metric", "last"));
+        small.flushAll();
+        
+        assertEquals(3, envelopes.size());
+        EventFrame first = EventFrameCodec.decodeEvent(envelopes.get(0));
+        assertEquals("first", EventFrameCodec.decodeEnvelope(first).getFirst().body());
+        assertEquals("x".repeat(100), EventFrameCodec.decodeEvent(envelopes.get(1)).body());
+        EventFrame last = EventFrameCodec.decodeEvent(envelopes.get(2));
+        assertEquals("last", EventFrameCodec.decodeEnvelope(last).getFirst().body());
+    }
+    
+    @Test
+    public void testIdleSubjectsAreDropped() {
+        for (int i = 0; i < 10; i++) {
+            batcher.add("subject." + i, EventFrameCodec.encodeEvent("event", "{}"));
+        }
+        batcher.add("hot", EventFrameCodec.encodeEvent("event", "{}"));
+        batcher.flushExpired();
+        assertEquals(11, sent.size());
+        assertEquals(11, batcher.getSubjectCount());
+        
+        batcher.add("hot", EventFrameCodec.encodeEvent("event", "{}"));
+        batcher.flushExpired();
+        assertEquals(12, sent.size());
+        assertEquals(1, batcher.getSubjectCount());
+        
+        batcher.flushAll();
+        assertEquals(0, batcher.getSubjectCount());
+    }
+}
@@ -0,0 +1,46 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+public class EventBulkheadTest {
+    
+    @Test
+    public void testQueueFullPolicies() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocking = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        EventBulkhead reject = new EventBulkhead("reject", 1, 1, EventBulkhead.Policy.REJECT);
+        EventBulkhead drop = new EventBulkhead("drop", 1, 1, EventBulkhead.Policy.DROP);
+        EventBulkhead callerRuns = new EventBulkhead("caller", 1, 1, EventBulkhead.Policy.CALLER_RUNS);
+        for (EventBulkhead bulkhead : new EventBulkhead[]{reject, drop, callerRuns}) {
+            assertTrue(bulkhead.execute(blocking));
+            assertTrue(bulkhead.execute(blocking));
+            assertEquals(1, bulkhead.getQueueDepth());
+        }
+        
+        assertFalse(reject.execute(() -> {}));
+        assertEquals(1, reject.getRejectedCount());
+        assertTrue(drop.execute(() -> {}));
+        assertEquals(1, drop.getDroppedCount());
+        Thread caller = Thread.currentThread();
+        Thread[] ranOn = new Thread[1];
+        assertTrue(callerRuns.execute(() -> ranOn[0] = Thread.currentThread()));
+        assertEquals(caller, ranOn[0]);
+        assertEquals(1, callerRuns.getCallerRunsCount());
+        
+        release.countDown();
+        reject.shutdown();
+        drop.shutdown();
+        callerRuns.shutdown();
+    }
+}
@@ -0,0 +1,127 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.lrenyi.spring.nats.codec.NatsCodec;
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import com.lrenyi.spring.nats.compress.PayloadCompressor;
+import com.lrenyi.spring.nats.compress.PayloadCompressors;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+public class EventFrameCodecTest {
+    
+    @Test
+    public void testEventRoundTrip() {
+        String body = "{\"name\":\"你好\",\"emoji\":\"😀\",\"ascii\":\"abc\"}";
+        byte[] frame = EventFrameCodec.encodeEvent("user.created", body);
+        byte[] bodyBytes = body.getBytes(StandardCharsets.UTF_8);
+        assertEquals(1 + "user.created".length() + 4 + bodyBytes.length, frame.length);
+        
+        EventFrame decoded = EventFrameCodec.decodeEvent(frame);
+        assertEquals("user.created", decoded.name());
+        assertEquals(body, decoded.body());
+    }
+    
+    @Test
+    public void testEmptyBody() {
+        EventFrame decoded = EventFrameCodec.decodeEvent(EventFrameCodec.encodeEvent("ping", ""));
+        assertEquals("ping", decoded.name());
+        assertNull(decoded.body());
+    }
+    
+    @Test
+    public void testUnpairedSurrogateMatchesJdkEncoding() {
+        String value = "a\uD800b\uDC00c";
+        byte[] expected = value.getBytes(StandardCharsets.UTF_8);
+        byte[] actual = new byte[EventFrameCodec.utf8Length(value)];
+        EventFrameCodec.writeUtf8(value, actual, 0);
+        assertArrayEquals(expected, actual);
+    }
+    
+    @Test
+    public void testResponseRoundTrip() {
+        Response ok = EventFrameCodec.decodeResponse(EventFrameCodec.encodeResponse(true, "done"));
+        assertTrue(ok.isSuccess());
+        assertEquals("done", ok.getData());
+        
+        Response failed = EventFrameCodec.decodeResponse(EventFrameCodec.encodeResponse(false, (String) null));
+        assertFalse(failed.isSuccess());
+        assertEquals("", failed.getData());
+    }
+    
+    @Test
+    public void testTypedRoundTripWritesIntoFrame() throws Exception {
+        for (String codecName : new String[]{NatsCodecs.JSON, NatsCodecs.CBOR}) {
+            NatsCodec codec = NatsCodecs.get(codecName);
+            byte[] frame = EventFrameCodec.encodeEvent("order.query", codec, Map.of("id", 42, "name", "你好"));
+            EventFrame decoded = EventFrameCodec.decodeEvent(frame);
+            assertEquals(frame.length, decoded.getBodyOffset() + decoded.getBodyLength());
+            Map<?, ?> body = codec.decode(decoded.getBodyData(), decoded.getBodyOffset(), decoded.getBodyLength(),
+                                          Map.class
+            );
+            assertEquals(42, body.get("id"));
+            assertEquals("你好", body.get("name"));
+            
+            Response response = EventFrameCodec.decodeResponse(EventFrameCodec.encodeResponse(true, codec, 7L));
+            assertEquals(7L, response.getData(codec, Long.class));
+        }
+    }
+    
+    @Test
+    public void testCompressedBodyIsTransparent() throws Exception {
+        String body = "{\"text\":\"" + "abc你好".repeat(4000) + "\"}";
+        byte[] plain = EventFrameCodec.encodeEvent("doc.saved", body);
+        for (String name : new String[]{PayloadCompressors.DEFLATE, PayloadCompressors.LZ4, PayloadCompressors.ZSTD}) {
+            PayloadCompressor compressor = PayloadCompressors.get(name);
+            byte[] compressed = EventFrameCodec.compressEvent(plain, compressor, 1024);
+            assertTrue(compressed.length < plain.length / 4);
+            EventFrame decoded = EventFrameCodec.decodeEvent(compressed);
+            assertEquals("doc.saved", decoded.name());
+            assertEquals(body, decoded.body());
+            
+            byte[] response = EventFrameCodec.compressResponse(EventFrameCodec.encodeResponse(true, body), compressor,
+                                                               1024
+            );
+            assertEquals(body, EventFrameCodec.decodeResponse(response).getData());
+        }
+        assertSame(plain, EventFrameCodec.compressEvent(plain, PayloadCompressors.get("deflate"), plain.length));
+    }
+    
+    @Test
+    public void testMalformedCompressedBodyIsRejected() throws Exception {
+        byte[] plain = EventFrameCodec.encodeEvent("doc.saved", "abc".repeat(4000));
+        byte[] compressed = EventFrameCodec.compressEvent(plain, PayloadCompressors.get(PayloadCompressors.LZ4), 1024);
+        int bodyOffset = 1 + "doc.saved".length() + 4;
+        
+        byte[] bomb = compressed.clone();
+        EventFrameCodec.writeInt(bomb, bodyOffset + 1, Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () -> EventFrameCodec.decodeEvent(bomb));
+        
+        byte[] corrupt = compressed.clone();
+        for (int i = bodyOffset + 5; i < corrupt.length; i++) {
+            corrupt[i] = (byte) 0xF0;
+        }
+        assertThrows(IllegalArgumentException.class, () -> EventFrameCodec.decodeEvent(corrupt));
+    }
+    
+    @Test
+    public void testTruncatedFrameIsRejected() {
+        byte[] frame = EventFrameCodec.encodeEvent("user.created", "{\"id\":1}");
+        byte[] truncated = new byte[frame.length - 2];
+        System.arraycopy(frame, 0, truncated, 0, truncated.length);
+        assertThrows(IllegalArgumentException.class, () -> EventFrameCodec.decodeEvent(truncated));
+    }
+    
+    @Test
+    public void testEmptyEventNameIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> EventFrameCodec.encodeEvent("", "body"));
+    }
+}
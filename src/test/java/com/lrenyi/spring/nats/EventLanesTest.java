@@ -0,0 +1,36 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+
+public class EventLanesTest {
+    
+    @Test
+    public void testLanesKeepKeyOrder() throws InterruptedException {
+        EventLanes lanes = new EventLanes(4, 16);
+        Map<String, List<Integer>> seen = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(300);
+        for (int i = 0; i < 100; i++) {
+            for (String key : new String[]{"a", "b", "c"}) {
+                int sequence = i;
+                lanes.execute(key, () -> {
+                    seen.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(sequence);
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        List<Integer> expected = IntStream.range(0, 100).boxed().toList();
+        seen.values().forEach(sequences -> assertEquals(expected, sequences));
+        lanes.shutdown();
+    }
+}
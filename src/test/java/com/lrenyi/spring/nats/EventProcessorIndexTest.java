@@ -0,0 +1,69 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import io.nats.client.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class EventProcessorIndexTest {
+    
+    @AfterEach
+    public void clear() {
+        EventProcessor.ALL_EVENT_PROCESSOR.clear();
+        EventProcessorIndex.rebuild();
+    }
+    
+    @Test
+    public void testProcessorIndex() {
+        EventProcessor processor = register("订单.created");
+        EventProcessorIndex.rebuild();
+        
+        assertSame(processor, find("订单.created"));
+        assertNull(find("订单.deleted"));
+    }
+    
+    @Test
+    public void testEveryProcessorIsFoundAmongMany() {
+        List<EventProcessor> processors = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            processors.add(register("event." + i));
+        }
+        EventProcessorIndex.rebuild();
+        
+        for (EventProcessor processor : processors) {
+            assertSame(processor, find(processor.getEventType()));
+        }
+    }
+    
+    @Test
+    public void testProcessorRegisteredAfterTheRebuildIsFound() {
+        EventProcessorIndex.rebuild();
+        EventProcessor processor = register("late");
+        
+        assertSame(processor, find("late"));
+    }
+    
+    private static EventProcessor find(String eventName) {
+        return EventProcessorIndex.find(EventFrameCodec.decodeEvent(EventFrameCodec.encodeEvent(eventName, "{}")));
+    }
+    
+    private static EventProcessor register(String eventType) {
+        EventProcessor processor = new EventProcessor() {
+            @Override
+            public String getEventType() {
+                return eventType;
+            }
+            
+            @Override
+            public String handler(String jsonData, Connection connection) {
+                return jsonData;
+            }
+        };
+        EventProcessor.ALL_EVENT_PROCESSOR.put(eventType, processor);
+        return processor;
+    }
+}
@@ -0,0 +1,42 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class FlushCoalescerTest {
+    private final StubConnection stub = new StubConnection();
+    
+    @Test
+    public void testEveryFlushSizePublishesFlushOnce() throws InterruptedException {
+        FlushCoalescer coalescer = new FlushCoalescer(10, false);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    coalescer.published(stub.connection);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        assertEquals(800, stub.flushes.get());
+    }
+    
+    @Test
+    public void testScheduledFlushOnlyWhenPublished() {
+        FlushCoalescer coalescer = new FlushCoalescer(0, true);
+        coalescer.published(stub.connection);
+        coalescer.published(stub.connection);
+        coalescer.flushAll();
+        coalescer.flushAll();
+        
+        assertEquals(1, stub.flushes.get());
+    }
+}
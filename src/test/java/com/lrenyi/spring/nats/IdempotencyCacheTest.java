@@ -0,0 +1,60 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+public class IdempotencyCacheTest {
+    
+    @Test
+    public void testDuplicatesShareTheFirstResponse() {
+        IdempotencyCache cache = new IdempotencyCache(10, Duration.ofMinutes(1));
+        assertNull(cache.join("order:1", "inbox.1"));
+        CompletableFuture<byte[]> concurrent = cache.join("order:1", "inbox.2");
+        assertFalse(concurrent.isDone());
+        
+        byte[] response = EventFrameCodec.encodeResponse(true, "ok");
+        cache.replied("inbox.1", response);
+        assertSame(response, concurrent.join());
+        assertSame(response, cache.join("order:1", "inbox.3").join());
+        assertEquals(2, cache.getDuplicateCount());
+    }
+    
+    @Test
+    public void testFailuresAreNotRemembered() {
+        IdempotencyCache cache = new IdempotencyCache(10, Duration.ofMinutes(1));
+        assertNull(cache.join("order:1", "inbox.1"));
+        cache.replied("inbox.1", EventFrameCodec.encodeResponse(false, "db down"));
+        assertNull(cache.join("order:1", "inbox.2"));
+    }
+    
+    @Test
+    public void testEviction() {
+        IdempotencyCache cache = new IdempotencyCache(2, Duration.ofMinutes(1));
+        cache.join("a", "inbox.a");
+        cache.join("b", "inbox.b");
+        cache.join("c", "inbox.c");
+        assertEquals(2, cache.size());
+        assertNull(cache.join("a", "inbox.a2"));
+    }
+    
+    @Test
+    public void testPurgeAnswersWaitingDuplicates() throws InterruptedException {
+        IdempotencyCache cache = new IdempotencyCache(10, Duration.ofMillis(50));
+        assertNull(cache.join("order:1", "inbox.1"));
+        CompletableFuture<byte[]> duplicate = cache.join("order:1", "inbox.2");
+        
+        Thread.sleep(60);
+        cache.purgeExpired();
+        assertEquals(0, cache.size());
+        Response response = EventFrameCodec.decodeResponse(duplicate.join());
+        assertFalse(response.isSuccess());
+        cache.replied("inbox.1", EventFrameCodec.encodeResponse(true, "late"));
+        assertNull(cache.join("order:1", "inbox.3"));
+    }
+}
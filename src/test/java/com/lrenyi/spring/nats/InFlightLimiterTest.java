@@ -0,0 +1,132 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class InFlightLimiterTest {
+    
+    @Test
+    public void testGlobalAndSubjectLimits() {
+        InFlightLimiter limiter = new InFlightLimiter(3, 2, Map.of("slow", 1), Duration.ZERO);
+        limiter.acquire("slow").join();
+        assertRejected(limiter.acquire("slow"));
+        limiter.acquire("fast").join();
+        limiter.acquire("fast").join();
+        assertRejected(limiter.acquire("other"));
+        assertEquals(2, limiter.getRejectedCount());
+        
+        limiter.release("fast");
+        limiter.acquire("other").join();
+        assertEquals(0, limiter.getAvailablePermits());
+    }
+    
+    @Test
+    public void testWaitingDoesNotBlockTheCaller() throws Exception {
+        InFlightLimiter limiter = new InFlightLimiter(1, 0, Map.of(), Duration.ofSeconds(5));
+        limiter.acquire("a").join();
+        
+        CompletableFuture<Void> waiting = limiter.acquire("a");
+        assertFalse(waiting.isDone());
+        assertEquals(1, limiter.getQueuedCount());
+        
+        limiter.release("a");
+        assertTrue(waiting.isDone());
+        assertEquals(0, limiter.getAvailablePermits());
+        assertEquals(0, limiter.getRejectedCount());
+    }
+    
+    @Test
+    public void testWaitingIsBounded() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 0, Map.of(), Duration.ofMillis(20));
+        limiter.acquire("a").join();
+        
+        assertRejected(limiter.acquire("a"));
+        
+        limiter.release("a");
+        assertEquals(1, limiter.getAvailablePermits());
+    }
+    
+    @Test
+    public void testBatchPermitsAreTakenAtOnce() {
+        InFlightLimiter limiter = new InFlightLimiter(4, 0, Map.of(), Duration.ofSeconds(5));
+        assertRejected(limiter.acquire("a", 5));
+        
+        limiter.acquire("a").join();
+        limiter.acquire("a").join();
+        CompletableFuture<Void> batch = limiter.acquire("a", 3);
+        assertFalse(batch.isDone());
+        assertEquals(2, limiter.getAvailablePermits());
+        
+        limiter.release("a");
+        assertTrue(batch.isDone());
+        assertEquals(0, limiter.getAvailablePermits());
+        limiter.release("a", 3);
+        limiter.release("a");
+        assertEquals(4, limiter.getAvailablePermits());
+    }
+    
+    @Test
+    public void testQueuedRequestsAreAdmittedInOrder() {
+        InFlightLimiter limiter = new InFlightLimiter(3, 0, Map.of(), Duration.ofSeconds(5));
+        limiter.acquire("a", 2).join();
+        limiter.acquire("a").join();
+        CompletableFuture<Void> batch = limiter.acquire("a", 3);
+        
+        limiter.release("a");
+        CompletableFuture<Void> single = limiter.acquire("a");
+        assertFalse(batch.isDone());
+        assertFalse(single.isDone());
+        
+        limiter.release("a", 2);
+        assertTrue(batch.isDone());
+        assertFalse(single.isDone());
+        limiter.release("a", 3);
+        assertTrue(single.isDone());
+    }
+    
+    @Test
+    public void testCancelledRequestsLeaveTheQueue() {
+        InFlightLimiter limiter = new InFlightLimiter(1, 0, Map.of(), Duration.ofSeconds(5));
+        limiter.acquire("a").join();
+        CompletableFuture<Void> cancelled = limiter.acquire("a");
+        CompletableFuture<Void> next = limiter.acquire("a");
+        
+        cancelled.cancel(false);
+        limiter.release("a");
+        
+        assertTrue(next.isDone());
+        assertEquals(0, limiter.getAvailablePermits());
+        limiter.release("a");
+        assertEquals(1, limiter.getAvailablePermits());
+    }
+    
+    @Test
+    public void testIdleSubjectsAreEvicted() {
+        InFlightLimiter limiter = new InFlightLimiter(0, 2, Map.of(), Duration.ZERO);
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire("subject." + i).join();
+        }
+        assertEquals(100, limiter.getSubjectCount());
+        
+        for (int i = 0; i < 100; i++) {
+            limiter.release("subject." + i);
+        }
+        assertEquals(0, limiter.getSubjectCount());
+    }
+    
+    private static void assertRejected(CompletableFuture<Void> future) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+}
@@ -0,0 +1,69 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import io.nats.client.Message;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.Test;
+
+public class ReplyMultiplexerTest {
+    private final StubConnection stub = new StubConnection();
+    private final ReplyMultiplexer multiplexer = new ReplyMultiplexer(stub.connection);
+    
+    @Test
+    public void testRequestsShareOneInboxSubscription() {
+        stub.responder = message -> ("re:" + new String(message.getData(), StandardCharsets.UTF_8)).getBytes();
+        
+        Message first = multiplexer.request("orders", "a".getBytes(), Duration.ofSeconds(5)).join();
+        Message second = multiplexer.request("orders", "b".getBytes(), Duration.ofSeconds(5)).join();
+        
+        assertEquals("re:a", new String(first.getData(), StandardCharsets.UTF_8));
+        assertEquals("re:b", new String(second.getData(), StandardCharsets.UTF_8));
+        assertEquals(1, stub.subscriptions.size());
+        assertEquals(0, multiplexer.pendingCount());
+    }
+    
+    @Test
+    public void testSweepTimesOutUnansweredRequests() throws InterruptedException {
+        CompletableFuture<Message> expiring = multiplexer.request("orders", new byte[0], Duration.ofMillis(1));
+        CompletableFuture<Message> waiting = multiplexer.request("orders", new byte[0], Duration.ofMinutes(1));
+        Thread.sleep(5);
+        
+        multiplexer.sweep();
+        
+        CompletionException e = assertThrows(CompletionException.class, expiring::join);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertFalse(waiting.isDone());
+        assertEquals(1, multiplexer.pendingCount());
+    }
+    
+    @Test
+    public void testSweepDropsAbandonedAndLateRepliesAreDiscarded() throws InterruptedException {
+        CompletableFuture<Message> abandoned = multiplexer.request("orders", new byte[0], Duration.ofMinutes(1));
+        abandoned.cancel(false);
+        multiplexer.sweep();
+        assertEquals(0, multiplexer.pendingCount());
+        
+        Message request = stub.published.getFirst();
+        stub.deliver(request.getReplyTo(), null, null, "late".getBytes());
+        assertEquals(0, multiplexer.pendingCount());
+    }
+    
+    @Test
+    public void testCloseFailsPendingRequests() {
+        CompletableFuture<Message> pending = multiplexer.request("orders", new byte[0], Duration.ofMinutes(1));
+        
+        multiplexer.close();
+        
+        CompletionException e = assertThrows(CompletionException.class, pending::join);
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertEquals(0, multiplexer.pendingCount());
+    }
+}
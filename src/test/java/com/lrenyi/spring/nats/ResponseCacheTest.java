@@ -0,0 +1,50 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+
+public class ResponseCacheTest {
+    
+    @Test
+    public void testCachedPerSubjectAndBody() {
+        ResponseCache cache = new ResponseCache(Map.of("config.get", new NatsProperties.Cache()));
+        AtomicInteger requests = new AtomicInteger();
+        Supplier<CompletableFuture<Response>> request = () -> {
+            Response response = new Response();
+            response.setSuccess(true);
+            response.setData("v" + requests.incrementAndGet());
+            return CompletableFuture.completedFuture(response);
+        };
+        Response first = cache.get("config", "config.get", "{\"key\":\"a\"}", request).join();
+        Response second = cache.get("config", "config.get", "{\"key\":\"a\"}", request).join();
+        assertEquals("v1", second.getData());
+        assertNotSame(first, second);
+        assertEquals("v2", cache.get("config", "config.get", "{\"key\":\"b\"}", request).join().getData());
+        assertEquals("v3", cache.get("config", "user.get", "{\"key\":\"a\"}", request).join().getData());
+        assertEquals(1, cache.getHitCount());
+        
+        cache.invalidate("config.get");
+        assertEquals("v4", cache.get("config", "config.get", "{\"key\":\"a\"}", request).join().getData());
+    }
+    
+    @Test
+    public void testFailuresAreNotCached() {
+        ResponseCache cache = new ResponseCache(Map.of("config.get", new NatsProperties.Cache()));
+        AtomicInteger requests = new AtomicInteger();
+        Supplier<CompletableFuture<Response>> request = () -> {
+            Response response = new Response();
+            response.setSuccess(requests.incrementAndGet() > 1);
+            return CompletableFuture.completedFuture(response);
+        };
+        cache.get("config", "config.get", null, request).join();
+        cache.get("config", "config.get", null, request).join();
+        cache.get("config", "config.get", null, request).join();
+        assertEquals(2, requests.get());
+    }
+}
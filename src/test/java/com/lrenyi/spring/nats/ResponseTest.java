@@ -0,0 +1,34 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+public class ResponseTest {
+    
+    @Test
+    public void testSerializedFieldsAreUnchanged() throws Exception {
+        Response response = EventFrameCodec.decodeResponse(EventFrameCodec.encodeResponse(true, "ok"));
+        
+        JsonNode json = new ObjectMapper().valueToTree(response);
+        
+        Set<String> fields = new HashSet<>();
+        json.fieldNames().forEachRemaining(fields::add);
+        assertEquals(Set.of("success", "data"), fields);
+        assertEquals("ok", json.get("data").asText());
+    }
+    
+    @Test
+    public void testBinaryViews() {
+        Response response = EventFrameCodec.decodeResponse(EventFrameCodec.encodeResponse(true, "ok"));
+        
+        assertArrayEquals("ok".getBytes(StandardCharsets.UTF_8), response.toBytes());
+        assertEquals(2, response.asReadOnlyBuffer().remaining());
+    }
+}
@@ -0,0 +1,117 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+public class StreamingResponsePublisherTest {
+    private final StubConnection stub = new StubConnection();
+    private final ReplyMultiplexer multiplexer = new ReplyMultiplexer(stub.connection);
+    private final AtomicInteger executed = new AtomicInteger();
+    private final Executor executor = task -> {
+        executed.incrementAndGet();
+        task.run();
+    };
+    private final RecordingSubscriber subscriber = new RecordingSubscriber();
+    
+    @Test
+    public void testChunksAreDeliveredOnTheExecutor() throws Exception {
+        publisher(Duration.ofSeconds(5)).subscribe(subscriber);
+        subscriber.subscription.request(10);
+        Message request = stub.published.getFirst();
+        assertEquals("4", request.getHeaders().getFirst(ResponseStream.WINDOW_HEADER));
+        
+        chunk(request, false, "a");
+        chunk(request, false, "b");
+        chunk(request, true, null);
+        
+        assertEquals(List.of("a", "b"), subscriber.chunks);
+        assertTrue(subscriber.completed);
+        assertEquals(3, executed.get());
+        assertEquals(0, multiplexer.pendingCount());
+    }
+    
+    @Test
+    public void testIdleTimeoutIsPausedWithoutDemand() throws Exception {
+        publisher(Duration.ofMillis(1)).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        Message request = stub.published.getFirst();
+        chunk(request, false, "a");
+        
+        Thread.sleep(5);
+        multiplexer.sweep();
+        assertNull(subscriber.error);
+        
+        subscriber.subscription.request(1);
+        Thread.sleep(5);
+        multiplexer.sweep();
+        assertInstanceOf(TimeoutException.class, subscriber.error);
+    }
+    
+    @Test
+    public void testPlainRequestCollectsTheChunks() throws Throwable {
+        StreamingEventProcessor processor = new StreamingEventProcessor() {
+            @Override
+            public void handle(String jsonData, ResponseStream stream, Connection connection) throws Throwable {
+                stream.next("[" + jsonData);
+                stream.next("]");
+            }
+            
+            @Override
+            public String getEventType() {
+                return "report";
+            }
+        };
+        
+        assertEquals("[1,2]", processor.handler("1,2", null));
+    }
+    
+    private StreamingResponsePublisher publisher(Duration idleTimeout) {
+        return new StreamingResponsePublisher(multiplexer, "reports", new byte[]{1}, idleTimeout, 4, executor);
+    }
+    
+    private void chunk(Message request, boolean end, String data) throws InterruptedException {
+        byte[] bytes = data == null ? null : data.getBytes(StandardCharsets.UTF_8);
+        stub.deliver(request.getReplyTo(), "_INBOX.credit", null, EventFrameCodec.encodeStreamChunk(true, end, bytes));
+    }
+    
+    private static class RecordingSubscriber implements Flow.Subscriber<Response> {
+        private final List<String> chunks = new CopyOnWriteArrayList<>();
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+        private volatile boolean completed;
+        
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+        
+        @Override
+        public void onNext(Response item) {
+            chunks.add(item.getData());
+        }
+        
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+        
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+package com.lrenyi.spring.nats;
+
+import io.nats.client.Connection;
+import io.nats.client.Dispatcher;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import io.nats.client.Subscription;
+import io.nats.client.impl.Headers;
+import io.nats.client.impl.NatsMessage;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A {@link Connection} without a server for tests. It records what is published and subscribed, delivers
+ * published messages synchronously to the matching subscriptions and answers requests with {@link #responder}.
+ */
+class StubConnection {
+    final Connection connection;
+    final List<Message> published = new CopyOnWriteArrayList<>();
+    final List<StubDispatcher> dispatchers = new CopyOnWriteArrayList<>();
+    final List<StubSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    final AtomicInteger flushes = new AtomicInteger();
+    private final AtomicInteger inboxes = new AtomicInteger();
+    volatile Connection.Status status = Connection.Status.CONNECTED;
+    /**
+     * Returns the reply to a message published with a reply subject, null sends none.
+     */
+    volatile Function<Message, byte[]> responder;
+    
+    StubConnection() {
+        connection = proxy(Connection.class, this::onConnection);
+    }
+    
+    /**
+     * Delivers a message to every subscription matching its subject, like the server would.
+     */
+    void deliver(String subject, String replyTo, Headers headers, byte[] data) throws InterruptedException {
+        Message built = NatsMessage.builder()
+                                   .subject(subject)
+                                   .replyTo(replyTo)
+                                   .headers(headers)
+                                   .data(data == null ? new byte[0] : data)
+                                   .build();
+        Message message = proxy(Message.class, (method, args) -> {
+            if (method.getName().equals("getConnection")) {
+                return connection;
+            }
+            try {
+                return method.invoke(built, args);
+            } catch (InvocationTargetException e) {
+                throw (Exception) e.getCause();
+            }
+        });
+        for (StubSubscription subscription : subscriptions) {
+            if (matches(subscription.subject, subject)) {
+                subscription.receive(message);
+            }
+        }
+    }
+    
+    private Object onConnection(Method method, Object[] args) throws Exception {
+        switch (method.getName()) {
+            case "publish" -> {
+                if (args.length == 1) {
+                    Message message = (Message) args[0];
+                    publish(message.getSubject(), message.getReplyTo(), message.getHeaders(), message.getData());
+                } else if (args.length == 2) {
+                    publish((String) args[0], null, null, (byte[]) args[1]);
+                } else if (args.length == 3 && args[1] instanceof Headers headers) {
+                    publish((String) args[0], null, headers, (byte[]) args[2]);
+                } else if (args.length == 3) {
+                    publish((String) args[0], (String) args[1], null, (byte[]) args[2]);
+                } else {
+                    publish((String) args[0], (String) args[1], (Headers) args[2], (byte[]) args[3]);
+                }
+                return null;
+            }
+            case "createInbox" -> {
+                return "_INBOX.stub" + inboxes.incrementAndGet();
+            }
+            case "createDispatcher" -> {
+                StubDispatcher dispatcher = new StubDispatcher(args == null ? null : (MessageHandler) args[0]);
+                dispatchers.add(dispatcher);
+                return dispatcher.dispatcher;
+            }
+            case "subscribe" -> {
+                return subscribe((String) args[0], args.length > 1 ? (String) args[1] : null, null).subscription;
+            }
+            case "closeDispatcher" -> {
+                dispatchers.stream().filter(d -> d.dispatcher == args[0]).forEach(d -> d.active = false);
+                return null;
+            }
+            case "flushBuffer", "flush" -> {
+                flushes.incrementAndGet();
+                return null;
+            }
+            case "getStatus" -> {
+                return status;
+            }
+            case "getMaxPayload" -> {
+                return 1024L * 1024;
+            }
+            case "hashCode" -> {
+                return System.identityHashCode(this);
+            }
+            case "equals" -> {
+                return args[0] == connection;
+            }
+            case "toString" -> {
+                return "StubConnection@" + Integer.toHexString(System.identityHashCode(this));
+            }
+            default -> {
+                return defaultValue(method);
+            }
+        }
+    }
+    
+    private void publish(String subject, String replyTo, Headers headers, byte[] data) throws InterruptedException {
+        Message message = NatsMessage.builder().subject(subject).replyTo(replyTo).headers(headers).data(data).build();
+        published.add(message);
+        deliver(subject, replyTo, headers, data);
+        Function<Message, byte[]> reply = responder;
+        if (replyTo != null && reply != null) {
+            byte[] response = reply.apply(message);
+            if (response != null) {
+                deliver(replyTo, null, null, response);
+            }
+        }
+    }
+    
+    private StubSubscription subscribe(String subject, String queue, MessageHandler handler) {
+        StubSubscription subscription = new StubSubscription(subject, queue, handler);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+    
+    private static boolean matches(String pattern, String subject) {
+        String[] patternTokens = pattern.split("\\.");
+        String[] subjectTokens = subject.split("\\.");
+        for (int i = 0; i < patternTokens.length; i++) {
+            if (patternTokens[i].equals(">")) {
+                return subjectTokens.length > i;
+            }
+            if (i >= subjectTokens.length) {
+                return false;
+            }
+            if (!patternTokens[i].equals("*") && !patternTokens[i].equals(subjectTokens[i])) {
+                return false;
+            }
+        }
+        return patternTokens.length == subjectTokens.length;
+    }
+    
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class) {
+            return false;
+        }
+        if (type == long.class) {
+            return 0L;
+        }
+        if (type == int.class) {
+            return 0;
+        }
+        if (type == CompletableFuture.class) {
+            return CompletableFuture.completedFuture(true);
+        }
+        return null;
+    }
+    
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object proxy = Proxy.newProxyInstance(StubConnection.class.getClassLoader(),
+                                              new Class<?>[]{type},
+                                              (p, method, args) -> handler.invoke(method, args)
+        );
+        return type.cast(proxy);
+    }
+    
+    @FunctionalInterface
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Exception;
+    }
+    
+    class StubDispatcher {
+        final Dispatcher dispatcher;
+        final List<StubSubscription> subscriptions = new CopyOnWriteArrayList<>();
+        private final MessageHandler defaultHandler;
+        volatile long pendingMessageLimit = Dispatcher.DEFAULT_MAX_MESSAGES;
+        volatile long pendingByteLimit = Dispatcher.DEFAULT_MAX_BYTES;
+        volatile boolean active = true;
+        
+        private StubDispatcher(MessageHandler defaultHandler) {
+            this.defaultHandler = defaultHandler;
+            this.dispatcher = proxy(Dispatcher.class, this::onDispatcher);
+        }
+        
+        private Object onDispatcher(Method method, Object[] args) {
+            switch (method.getName()) {
+                case "subscribe" -> {
+                    MessageHandler handler = defaultHandler;
+                    String queue = null;
+                    if (args[args.length - 1] instanceof MessageHandler messageHandler) {
+                        handler = messageHandler;
+                        queue = args.length == 3 ? (String) args[1] : null;
+                    } else if (args.length == 2) {
+                        queue = (String) args[1];
+                    }
+                    StubSubscription subscription = subscribe((String) args[0], queue, handler);
+                    subscriptions.add(subscription);
+                    return args[args.length - 1] instanceof MessageHandler ? subscription.subscription : dispatcher;
+                }
+                case "setPendingLimits" -> {
+                    pendingMessageLimit = (Long) args[0];
+                    pendingByteLimit = (Long) args[1];
+                    return null;
+                }
+                case "getPendingMessageLimit" -> {
+                    return pendingMessageLimit;
+                }
+                case "getPendingByteLimit" -> {
+                    return pendingByteLimit;
+                }
+                case "isActive" -> {
+                    return active;
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(this);
+                }
+                case "equals" -> {
+                    return args[0] == dispatcher;
+                }
+                default -> {
+                    return method.getReturnType() == Dispatcher.class ? dispatcher : defaultValue(method);
+                }
+            }
+        }
+    }
+    
+    class StubSubscription {
+        final Subscription subscription;
+        final String subject;
+        final String queue;
+        private final MessageHandler handler;
+        private final BlockingQueue<Message> messages = new LinkedBlockingQueue<>();
+        
+        private StubSubscription(String subject, String queue, MessageHandler handler) {
+            this.subject = subject;
+            this.queue = queue;
+            this.handler = handler;
+            this.subscription = proxy(Subscription.class, this::onSubscription);
+        }
+        
+        private void receive(Message message) throws InterruptedException {
+            if (handler == null) {
+                messages.add(message);
+            } else {
+                handler.onMessage(message);
+            }
+        }
+        
+        private Object onSubscription(Method method, Object[] args) throws InterruptedException {
+            switch (method.getName()) {
+                case "nextMessage" -> {
+                    long millis = args[0] instanceof Duration duration ? duration.toMillis() : (Long) args[0];
+                    return messages.poll(millis, TimeUnit.MILLISECONDS);
+                }
+                case "getSubject" -> {
+                    return subject;
+                }
+                case "getQueueName" -> {
+                    return queue;
+                }
+                case "unsubscribe" -> {
+                    subscriptions.remove(this);
+                    return null;
+                }
+                case "isActive" -> {
+                    return subscriptions.contains(this);
+                }
+                case "hashCode" -> {
+                    return System.identityHashCode(this);
+                }
+                case "equals" -> {
+                    return args[0] == subscription;
+                }
+                default -> {
+                    return defaultValue(method);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.lrenyi.spring.nats.annotations.Header;
+import com.lrenyi.spring.nats.annotations.Subject;
+import com.lrenyi.spring.nats.annotations.Subscribe;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import io.nats.client.impl.Headers;
+import io.nats.client.impl.NatsMessage;
+import java.lang.reflect.Method;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+public class SubscribeInvokerTest {
+    
+    @Test
+    public void testGeneratedInvoker() throws Exception {
+        Listener listener = new Listener();
+        MessageHandler invoker = invoker(listener, Listener.class.getMethod("onEvent", Message.class));
+        invoker.onMessage(NatsMessage.builder().subject("orders").data("a").build());
+        invoker.onMessage(NatsMessage.builder().subject("orders").data("b").build());
+        
+        assertEquals(List.of("orders", "orders"), listener.subjects);
+        assertTrue(invoker.getClass().getName().startsWith(Listener.class.getName()));
+    }
+    
+    @Test
+    public void testTypedParameters() throws Exception {
+        Listener listener = new Listener();
+        Method method = Listener.class.getMethod("onOrder", Order.class, String.class, String.class);
+        MessageHandler invoker = invoker(listener, method);
+        Headers headers = new Headers().add("Tenant", "t1");
+        String json = "{\"id\":\"o1\",\"amount\":3}";
+        invoker.onMessage(NatsMessage.builder().subject("orders.created").headers(headers).data(json).build());
+        
+        assertEquals(List.of("orders.created t1 o1 3"), listener.subjects);
+    }
+    
+    @Test
+    public void testSpreadParameters() throws Exception {
+        Listener listener = new Listener();
+        Method method = Listener.class.getMethod("onRaw", byte[].class, String.class, String.class, Headers.class);
+        MessageHandler invoker = invoker(listener, method);
+        invoker.onMessage(NatsMessage.builder().subject("raw").data("abc").build());
+        
+        assertEquals(List.of("3 abc raw null"), listener.subjects);
+    }
+    
+    @Test
+    public void testGenericParameters() throws Exception {
+        Listener listener = new Listener();
+        MessageHandler invoker = invoker(listener, Listener.class.getMethod("onOrders", List.class));
+        String json = "[{\"id\":\"o1\"},{\"id\":\"o2\"}]";
+        invoker.onMessage(NatsMessage.builder().subject("orders.all").data(json).build());
+        
+        assertEquals(List.of("o1", "o2"), listener.subjects);
+    }
+    
+    @Test
+    public void testPrimitivePayloadIsRejected() throws Exception {
+        Method method = Listener.class.getMethod("onCount", int.class);
+        
+        assertThrows(InvalidParameterException.class, () -> invoker(new Listener(), method));
+    }
+    
+    private static MessageHandler invoker(Object bean, Method method) {
+        Subscribe sub = method.getAnnotation(Subscribe.class);
+        return new SubscribeInfo(bean, method, sub).getInvoker();
+    }
+    
+    public static class Listener {
+        private final List<String> subjects = new ArrayList<>();
+        
+        @Subscribe("orders")
+        public String onEvent(Message message) {
+            subjects.add(message.getSubject());
+            return "ignored";
+        }
+        
+        @Subscribe("orders.*")
+        public void onOrder(Order order, @Subject String subject, @Header("Tenant") String tenant) {
+            subjects.add(subject + " " + tenant + " " + order.id + " " + order.amount);
+        }
+        
+        @Subscribe("orders.all")
+        public void onOrders(List<Order> orders) {
+            orders.forEach(order -> subjects.add(order.id));
+        }
+        
+        @Subscribe("count")
+        public void onCount(int count) {
+        }
+        
+        @Subscribe("raw")
+        public void onRaw(byte[] data, String text, @Subject String subject, Headers headers) {
+            subjects.add(data.length + " " + text + " " + subject + " " + headers);
+        }
+    }
+    
+    public static class Order {
+        public String id;
+        public int amount;
+    }
+}
@@ -0,0 +1,119 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.lrenyi.spring.nats.annotations.Subscribe;
+import io.nats.client.Consumer;
+import io.nats.client.Message;
+import io.nats.client.MessageHandler;
+import io.nats.client.impl.NatsMessage;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.Test;
+
+public class SubscriptionMonitorTest {
+    
+    @Test
+    public void testShed() throws Exception {
+        SubscriptionMonitor monitor = new SubscriptionMonitor(SlowConsumerPolicy.SHED, 0.8, info -> false);
+        FakeConsumer consumer = new FakeConsumer();
+        List<Message> received = new ArrayList<>();
+        MessageHandler handler = monitor.watch(subscribeInfo(), consumer, received::add);
+        Message message = NatsMessage.builder().subject("orders").data("a").build();
+        
+        consumer.pending = 7;
+        handler.onMessage(message);
+        consumer.pending = 8;
+        handler.onMessage(message);
+        handler.onMessage(message);
+        
+        assertEquals(1, received.size());
+        SubscriptionStats stats = monitor.getStats().getFirst();
+        assertEquals(2, stats.shedCount());
+        assertEquals(8, stats.pendingMessageCount());
+    }
+    
+    @Test
+    public void testAddConsumerWhenNearLimit() throws Exception {
+        List<SubscribeInfo> added = new ArrayList<>();
+        SubscriptionMonitor monitor = new SubscriptionMonitor(SlowConsumerPolicy.ADD_CONSUMER, 0.8, added::add);
+        FakeConsumer consumer = new FakeConsumer();
+        monitor.watch(subscribeInfo(), consumer, message -> {});
+        
+        monitor.check();
+        consumer.pending = 9;
+        consumer.dropped = 3;
+        monitor.check();
+        
+        assertEquals(1, added.size());
+        assertEquals(3, monitor.getStats().getFirst().droppedCount());
+    }
+    
+    private static SubscribeInfo subscribeInfo() throws Exception {
+        Method method = Listener.class.getMethod("onOrder", String.class);
+        return new SubscribeInfo(new Listener(), method, method.getAnnotation(Subscribe.class));
+    }
+    
+    public static class Listener {
+        @Subscribe(value = "orders", queue = "orders", maxConcurrency = 2)
+        public void onOrder(String order) {
+        }
+    }
+    
+    private static class FakeConsumer implements Consumer {
+        private long pending;
+        private long dropped;
+        
+        @Override
+        public void setPendingLimits(long maxMessages, long maxBytes) {
+        }
+        
+        @Override
+        public long getPendingMessageLimit() {
+            return 10;
+        }
+        
+        @Override
+        public long getPendingByteLimit() {
+            return 0;
+        }
+        
+        @Override
+        public long getPendingMessageCount() {
+            return pending;
+        }
+        
+        @Override
+        public long getPendingByteCount() {
+            return pending * 100;
+        }
+        
+        @Override
+        public long getDeliveredCount() {
+            return 0;
+        }
+        
+        @Override
+        public long getDroppedCount() {
+            return dropped;
+        }
+        
+        @Override
+        public void clearDroppedCount() {
+            dropped = 0;
+        }
+        
+        @Override
+        public boolean isActive() {
+            return true;
+        }
+        
+        @Override
+        public CompletableFuture<Boolean> drain(Duration timeout) {
+            return CompletableFuture.completedFuture(true);
+        }
+    }
+}
@@ -0,0 +1,445 @@
+package com.lrenyi.spring.nats;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.lrenyi.spring.nats.codec.NatsCodecs;
+import io.nats.client.Connection;
+import io.nats.client.Message;
+import io.nats.client.impl.Headers;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class TemplateNatsServiceTest {
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private final StubConnection stub = new StubConnection();
+    private final NatsProperties properties = new NatsProperties();
+    private ConnectionHolder holder;
+    private TemplateNatsService service;
+    
+    @AfterEach
+    public void shutdown() {
+        if (service != null) {
+            service.destroy();
+        }
+        holder.destroy();
+        EventProcessor.ALL_EVENT_PROCESSOR.clear();
+        EventProcessorIndex.rebuild();
+    }
+    
+    @Test
+    public void testBinaryCodecResponseIsSentAsBytes() throws Exception {
+        properties.setEventCodecs(Map.of("point", NatsCodecs.CBOR));
+        register(new TypedEventProcessor<Point, Point>(Point.class) {
+            @Override
+            public Point handle(Point event, Connection connection) {
+                return new Point(event.x * 2, event.y * 2);
+            }
+            
+            @Override
+            public String getEventType() {
+                return "point";
+            }
+        });
+        service();
+        
+        Point response = service.publishEvent("svc", "point", new Point(1, 200), Point.class, TIMEOUT);
+        
+        assertEquals(2, response.x);
+        assertEquals(400, response.y);
+    }
+    
+    @Test
+    public void testBinaryResponseKeepsItsBytes() throws Exception {
+        byte[] invalidUtf8 = {(byte) 0xC3, (byte) 0x28, (byte) 0xFF, 0};
+        BinaryEventProcessor processor = new BinaryEventProcessor() {
+            @Override
+            public byte[] handle(ByteBuffer body, Connection connection) {
+                return invalidUtf8;
+            }
+            
+            @Override
+            public String getEventType() {
+                return "bin";
+            }
+        };
+        register(processor);
+        service();
+        
+        Response response = service.publishBinaryEvent("svc", "bin", new byte[]{1}, TIMEOUT);
+        
+        assertArrayEquals(invalidUtf8, response.toBytes());
+        assertThrows(CharacterCodingException.class, () -> processor.handler("", null));
+    }
+    
+    @Test
+    public void testBinaryEventsAcceptANullBodyAndBuffers() throws Exception {
+        register(new BinaryEventProcessor() {
+            @Override
+            public byte[] handle(ByteBuffer body, Connection connection) {
+                return new byte[]{(byte) body.remaining()};
+            }
+            
+            @Override
+            public String getEventType() {
+                return "size";
+            }
+        });
+        service();
+        
+        Response empty = service.publishBinaryEvent("svc", "size", null, TIMEOUT);
+        ByteBuffer body = ByteBuffer.wrap(new byte[]{1, 2, 3});
+        Response buffer = service.publishBinaryEventBuffer("svc", "size", body, TIMEOUT);
+        
+        assertArrayEquals(new byte[]{0}, empty.toBytes());
+        assertArrayEquals(new byte[]{3}, buffer.toBytes());
+    }
+    
+    @Test
+    public void testBulkheadsAreRejectedForOrderedExecution() {
+        properties.setEventExecution(EventExecution.ORDERED);
+        properties.getBulkheads().put("report", new NatsProperties.Bulkhead());
+        
+        assertThrows(IllegalArgumentException.class, this::service);
+    }
+    
+    @Test
+    public void testPublishEventAsyncCompletesWithTheResponse() throws Exception {
+        register(echo());
+        service();
+        
+        CompletableFuture<Response> future = service.publishEventAsync("svc", "echo", "a", TIMEOUT);
+        
+        Response response = future.get(5, TimeUnit.SECONDS);
+        assertTrue(response.isSuccess());
+        assertEquals("re:a", response.getData());
+        assertEquals(0, holder.getReplyMultiplexer(stub.connection).pendingCount());
+    }
+    
+    @Test
+    public void testPublishEventAsyncFailsInsteadOfBlocking() throws Exception {
+        properties.setMaxInFlight(1);
+        service();
+        CompletableFuture<Response> unanswered = service.publishEventAsync("nobody", "echo", "a", TIMEOUT);
+        
+        CompletableFuture<Response> rejected = service.publishEventAsync("nobody", "echo", "b", TIMEOUT);
+        
+        assertFalse(unanswered.isDone());
+        assertTrue(rejected.isCompletedExceptionally());
+        ExecutionException e = assertThrows(ExecutionException.class, rejected::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+    }
+    
+    @Test
+    public void testCancelledQueuedRequestIsNeverSent() throws Exception {
+        properties.setMaxInFlight(1);
+        properties.setInFlightMaxWait(Duration.ofSeconds(5));
+        service();
+        CompletableFuture<Response> unanswered = service.publishEventAsync("nobody", "echo", "a", TIMEOUT);
+        CompletableFuture<Response> queued = service.publishEventAsync("nobody", "echo", "b", TIMEOUT);
+        assertEquals(1, stub.published.size());
+        
+        queued.cancel(false);
+        Message reply = stub.published.getFirst();
+        stub.deliver(reply.getReplyTo(), null, null, EventFrameCodec.encodeResponse(true, "done"));
+        
+        assertEquals("done", unanswered.get(5, TimeUnit.SECONDS).getData());
+        assertEquals(1, stub.published.size());
+        assertEquals(1, holder.getInFlightLimiter().getAvailablePermits());
+    }
+    
+    @Test
+    public void testPublishEventsFlushesOnceAndKeepsTheOrder() throws Exception {
+        register(echo());
+        service();
+        List<Event> events = List.of(new Event("echo", "1"), new Event("echo", "2"), new Event("echo", "3"));
+        
+        List<Response> responses = service.publishEvents("svc", events);
+        
+        assertEquals(List.of("re:1", "re:2", "re:3"), responses.stream().map(Response::getData).toList());
+        assertEquals(1, stub.flushes.get());
+    }
+    
+    @Test
+    public void testPublishEventsRejectsBatchesOverTheLimit() throws Exception {
+        properties.setMaxInFlight(2);
+        register(echo());
+        service();
+        List<Event> events = List.of(new Event("echo", "1"), new Event("echo", "2"), new Event("echo", "3"));
+        
+        CompletableFuture<List<Response>> future = service.publishEventsAsync("svc", events, TIMEOUT);
+        
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        assertTrue(stub.published.isEmpty());
+    }
+    
+    @Test
+    public void testGatherCompletesWithTheQuorumAtTheDeadline() throws Exception {
+        register(echo());
+        service();
+        stub.connection.createDispatcher(service::handOriginalMessage).subscribe("svc");
+        Duration timeout = Duration.ofMillis(20);
+        
+        CompletableFuture<List<Response>> quorum = service.publishEventGatherAsync("svc", "echo", "a", 3, 2, timeout);
+        CompletableFuture<List<Response>> missed = service.publishEventGatherAsync("svc", "echo", "b", 3, 3, timeout);
+        assertFalse(quorum.isDone());
+        Thread.sleep(30);
+        holder.getReplyMultiplexer(stub.connection).sweep();
+        
+        assertEquals(List.of("re:a", "re:a"), quorum.get().stream().map(Response::getData).toList());
+        ExecutionException e = assertThrows(ExecutionException.class, missed::get);
+        assertInstanceOf(TimeoutException.class, e.getCause());
+    }
+    
+    @Test
+    public void testGatherCompletesOnceAllResponded() throws Exception {
+        register(echo());
+        service();
+        
+        List<Response> responses = service.publishEventGather("svc", "echo", "a", 1, TIMEOUT);
+        
+        assertEquals(1, responses.size());
+    }
+    
+    @Test
+    public void testGatherBoundsAreValidated() throws Exception {
+        service();
+        
+        assertThrows(IllegalArgumentException.class, () -> {
+            service.publishEventGatherAsync("svc", "echo", "a", 2, -1, TIMEOUT);
+        });
+        assertThrows(IllegalArgumentException.class, () -> {
+            service.publishEventGatherAsync("svc", "echo", "a", 2, 3, TIMEOUT);
+        });
+        assertThrows(IllegalArgumentException.class, () -> {
+            service.publishEventGatherAsync("svc", "echo", "a", 0, 0, TIMEOUT);
+        });
+    }
+    
+    @Test
+    public void testVirtualExecutionRunsProcessorsOnVirtualThreads() throws Exception {
+        properties.setEventExecution(EventExecution.VIRTUAL);
+        List<Boolean> virtual = new CopyOnWriteArrayList<>();
+        register(new EventProcessor() {
+            @Override
+            public String getEventType() {
+                return "echo";
+            }
+            
+            @Override
+            public String handler(String jsonData, Connection connection) {
+                virtual.add(Thread.currentThread().isVirtual());
+                return "re:" + jsonData;
+            }
+        });
+        service();
+        
+        Response response = service.publishEvent("svc", "echo", "a", TIMEOUT);
+        
+        assertEquals("re:a", response.getData());
+        assertEquals(List.of(true), virtual);
+    }
+    
+    @Test
+    public void testVirtualExecutionIsBoundedOnTheDispatcher() throws Exception {
+        properties.setEventExecution(EventExecution.VIRTUAL);
+        properties.setVirtualMaxConcurrency(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> started = new CopyOnWriteArrayList<>();
+        register(new EventProcessor() {
+            @Override
+            public String getEventType() {
+                return "slow";
+            }
+            
+            @Override
+            public String handler(String jsonData, Connection connection) {
+                started.add(jsonData);
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return jsonData;
+            }
+        });
+        service();
+        CountDownLatch delivered = new CountDownLatch(2);
+        Thread dispatcher = Thread.ofPlatform().start(() -> {
+            try {
+                for (String body : List.of("a", "b")) {
+                    stub.deliver("svc", null, null, EventFrameCodec.encodeEvent("slow", body));
+                    delivered.countDown();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        
+        assertFalse(delivered.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, delivered.getCount());
+        assertEquals(List.of("a"), started);
+        
+        release.countDown();
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        dispatcher.join(5000);
+    }
+    
+    @Test
+    public void testAsyncProcessorHoldsItsBulkheadUntilItsStageCompletes() throws Exception {
+        properties.getBulkheads().put("lookup", new NatsProperties.Bulkhead());
+        List<CompletableFuture<String>> stages = new CopyOnWriteArrayList<>();
+        register(new AsyncEventProcessor() {
+            @Override
+            public String getEventType() {
+                return "lookup";
+            }
+            
+            @Override
+            public CompletionStage<String> handleAsync(String jsonData, Connection connection) {
+                CompletableFuture<String> stage = new CompletableFuture<>();
+                stages.add(stage);
+                return stage;
+            }
+        });
+        service();
+        
+        stub.deliver("svc", null, null, EventFrameCodec.encodeEvent("lookup", "a"));
+        stub.deliver("svc", null, null, EventFrameCodec.encodeEvent("lookup", "b"));
+        Thread.sleep(100);
+        assertEquals(1, stages.size());
+        assertEquals(1, service.getBulkheads().get("lookup").getQueueDepth());
+        
+        stages.getFirst().complete("done");
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (stages.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, stages.size());
+        stages.get(1).complete("done");
+    }
+    
+    @Test
+    public void testAsyncProcessorRepliesWhenItsStageCompletes() throws Exception {
+        Map<String, CompletableFuture<String>> stages = new ConcurrentHashMap<>();
+        register(new AsyncEventProcessor() {
+            @Override
+            public String getEventType() {
+                return "lookup";
+            }
+            
+            @Override
+            public CompletionStage<String> handleAsync(String jsonData, Connection connection) {
+                return stages.computeIfAbsent(jsonData, k -> new CompletableFuture<>());
+            }
+        });
+        service();
+        
+        CompletableFuture<Response> found = service.publishEventAsync("svc", "lookup", "found", TIMEOUT);
+        CompletableFuture<Response> failed = service.publishEventAsync("svc", "lookup", "failed", TIMEOUT);
+        assertFalse(found.isDone());
+        assertFalse(failed.isDone());
+        
+        stages.get("found").complete("value");
+        stages.get("failed").completeExceptionally(new IllegalStateException("no such key"));
+        
+        assertEquals("value", found.get(5, TimeUnit.SECONDS).getData());
+        Response failure = failed.get(5, TimeUnit.SECONDS);
+        assertFalse(failure.isSuccess());
+        assertEquals("no such key", failure.getData());
+    }
+    
+    @Test
+    public void testStreamWaitingForCreditDoesNotHoldTheDispatcher() throws Exception {
+        properties.setStreamCreditTimeout(Duration.ofSeconds(2));
+        CountDownLatch waiting = new CountDownLatch(1);
+        CountDownLatch finished = new CountDownLatch(1);
+        register(echo());
+        register(new StreamingEventProcessor() {
+            @Override
+            public void handle(String jsonData, ResponseStream stream, Connection connection) throws Throwable {
+                stream.next("a");
+                waiting.countDown();
+                try {
+                    stream.next("b");
+                } finally {
+                    finished.countDown();
+                }
+            }
+            
+            @Override
+            public String getEventType() {
+                return "report";
+            }
+        });
+        service();
+        Headers headers = new Headers().add(ResponseStream.WINDOW_HEADER, "1");
+        stub.deliver("svc", "_INBOX.stream", headers, EventFrameCodec.encodeEvent("report", "x"));
+        assertTrue(waiting.await(5, TimeUnit.SECONDS));
+        
+        Response response = service.publishEvent("svc", "echo", "a", TIMEOUT);
+        
+        assertEquals("re:a", response.getData());
+        assertEquals(1, finished.getCount());
+    }
+    
+    static void register(EventProcessor processor) {
+        EventProcessor.ALL_EVENT_PROCESSOR.put(processor.getEventType(), processor);
+        EventProcessorIndex.rebuild();
+    }
+    
+    static EventProcessor echo() {
+        return new EventProcessor() {
+            @Override
+            public String getEventType() {
+                return "echo";
+            }
+            
+            @Override
+            public String handler(String jsonData, Connection connection) {
+                return "re:" + jsonData;
+            }
+        };
+    }
+    
+    private void service() throws Exception {
+        holder = new ConnectionHolder();
+        holder.setProperties(properties);
+        holder.setConnection(stub.connection);
+        holder.afterPropertiesSet();
+        service = new TemplateNatsService(holder);
+        stub.connection.createDispatcher(service::handOriginalMessage).subscribe("svc");
+    }
+    
+    public static class Point {
+        public int x;
+        public int y;
+        
+        public Point() {
+        }
+        
+        public Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+}